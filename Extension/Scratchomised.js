@@ -1,5 +1,198 @@
 // TODO : add functions for the protocol, plus a function to filter objects
 
+// Décodeur CBOR (RFC 8949) pour les messages du sous-protocole "scratchomised.bin"
+// Il gère aussi les références de chaînes (tags 256 et 25) utilisées par le serveur
+// pour n'encoder qu'une fois les noms des propriétés et des classes
+class ScratchomisedCborDecoder {
+    constructor(buffer) {
+        this._bytes = new Uint8Array(buffer);
+        this._view = new DataView(buffer);
+        this._offset = 0;
+        this._stringTables = [];
+        this._textDecoder = new TextDecoder("utf-8");
+    }
+
+    decode() {
+        return this._readItem();
+    }
+
+    _readLength(info) {
+        let value;
+        if (info < 24) {
+            return info;
+        } else if (info === 24) {
+            value = this._view.getUint8(this._offset);
+            this._offset += 1;
+        } else if (info === 25) {
+            value = this._view.getUint16(this._offset);
+            this._offset += 2;
+        } else if (info === 26) {
+            value = this._view.getUint32(this._offset);
+            this._offset += 4;
+        } else if (info === 27) {
+            value = this._view.getUint32(this._offset) * 4294967296 + this._view.getUint32(this._offset + 4);
+            this._offset += 8;
+        } else if (info === 31) {
+            // Longueur indéfinie, terminée par 0xff
+            return -1;
+        } else {
+            throw new Error("invalid CBOR length: " + info);
+        }
+        return value;
+    }
+
+    _isBreak() {
+        if (this._bytes[this._offset] === 0xff) {
+            this._offset++;
+            return true;
+        }
+        return false;
+    }
+
+    // Mémorise une chaîne dans la table de références courante, selon les règles
+    // de taille minimale des stringref (elles dépendent de la taille de la table)
+    _rememberString(value, length) {
+        if (this._stringTables.length === 0) {
+            return;
+        }
+        const table = this._stringTables[this._stringTables.length - 1];
+        const size = table.length;
+        const minimum = size < 24 ? 3 : size < 256 ? 4 : size < 65536 ? 5 : size < 4294967296 ? 7 : 11;
+        if (length >= minimum) {
+            table.push(value);
+        }
+    }
+
+    _readString(info, text) {
+        const length = this._readLength(info);
+        if (length < 0) {
+            // Chaîne découpée en morceaux, jamais mémorisée
+            let chunks = [];
+            while (!this._isBreak()) {
+                const chunkInfo = this._bytes[this._offset++] & 0x1f;
+                chunks.push(this._readString(chunkInfo, text));
+            }
+            return text ? chunks.join("") : chunks;
+        }
+        const bytes = this._bytes.subarray(this._offset, this._offset + length);
+        this._offset += length;
+        const value = text ? this._textDecoder.decode(bytes) : bytes.slice();
+        this._rememberString(value, length);
+        return value;
+    }
+
+    // Les flottants 32 bits sont arrondis à leur plus courte représentation, comme en JSON
+    _shortestFloat(value) {
+        if (!isFinite(value)) {
+            return value;
+        }
+        for (let precision = 1; precision < 9; precision++) {
+            const rounded = parseFloat(value.toPrecision(precision));
+            if (Math.fround(rounded) === value) {
+                return rounded;
+            }
+        }
+        return value;
+    }
+
+    _readHalfFloat() {
+        const half = this._view.getUint16(this._offset);
+        this._offset += 2;
+        const exponent = (half >> 10) & 0x1f;
+        const mantissa = half & 0x3ff;
+        let value;
+        if (exponent === 0) {
+            value = mantissa * Math.pow(2, -24);
+        } else if (exponent === 31) {
+            value = mantissa === 0 ? Infinity : NaN;
+        } else {
+            value = (mantissa + 1024) * Math.pow(2, exponent - 25);
+        }
+        return (half & 0x8000) ? -value : value;
+    }
+
+    _readItem() {
+        const initial = this._bytes[this._offset++];
+        const major = initial >> 5;
+        const info = initial & 0x1f;
+        switch (major) {
+            case 0:
+                return this._readLength(info);
+            case 1:
+                return -1 - this._readLength(info);
+            case 2:
+                return this._readString(info, false);
+            case 3:
+                return this._readString(info, true);
+            case 4: {
+                const length = this._readLength(info);
+                let array = [];
+                if (length < 0) {
+                    while (!this._isBreak()) {
+                        array.push(this._readItem());
+                    }
+                } else {
+                    for (let i = 0; i < length; i++) {
+                        array.push(this._readItem());
+                    }
+                }
+                return array;
+            }
+            case 5: {
+                const length = this._readLength(info);
+                let map = {};
+                if (length < 0) {
+                    while (!this._isBreak()) {
+                        const key = this._readItem();
+                        map[key] = this._readItem();
+                    }
+                } else {
+                    for (let i = 0; i < length; i++) {
+                        const key = this._readItem();
+                        map[key] = this._readItem();
+                    }
+                }
+                return map;
+            }
+            case 6: {
+                const tag = this._readLength(info);
+                if (tag === 256) {
+                    // Nouvel espace de références de chaînes
+                    this._stringTables.push([]);
+                    const value = this._readItem();
+                    this._stringTables.pop();
+                    return value;
+                } else if (tag === 25) {
+                    // Référence à une chaîne déjà lue
+                    const index = this._readItem();
+                    return this._stringTables[this._stringTables.length - 1][index];
+                }
+                return this._readItem();
+            }
+            default: {
+                if (info === 20) {
+                    return false;
+                } else if (info === 21) {
+                    return true;
+                } else if (info === 22 || info === 23) {
+                    return null;
+                } else if (info === 25) {
+                    return this._readHalfFloat();
+                } else if (info === 26) {
+                    const value = this._view.getFloat32(this._offset);
+                    this._offset += 4;
+                    return this._shortestFloat(value);
+                } else if (info === 27) {
+                    const value = this._view.getFloat64(this._offset);
+                    this._offset += 8;
+                    return value;
+                }
+                throw new Error("unsupported CBOR simple value: " + info);
+            }
+        }
+    }
+}
+
 // Class representing the extension
 class Scratchomised {
     constructor(runtime) {
@@ -10,6 +203,14 @@ class Scratchomised {
         this.socket = null;
         this._reconnectSocket();
         this._objects = {};
+        // Serveur et numéro du dernier lot de modifications reçu, pour reprendre après une reconnexion
+        this._epoch = null;
+        this._lastSeq = null;
+        // Version du contenu des objets reçus, gardés dans le localStorage pour le prochain chargement de la page
+        this._version = null;
+        this._cacheSaveTimeout = null;
+        // Objets reçus depuis le début d'un envoi en plusieurs parties (update_objects_chunk)
+        this._chunkObjectIds = {};
         this._clickedSwitches = {}; // Map pour stocker l'état des clics sur les switches
         this._prefix = "[Scratchomised] - ";
         this._menuVersion = 0; // Compteur pour forcer le rafraîchissement des menus
@@ -507,6 +708,10 @@ class Scratchomised {
         
         // Vider la liste des objets
         this._objects = {};
+        this._epoch = null;
+        this._lastSeq = null;
+        this._version = null;
+        this._removeCache();
         this._clickedSwitches = {}; // Réinitialiser aussi les clics
         
         // Réinitialiser les variables
@@ -553,6 +758,53 @@ class Scratchomised {
         return objects;
     }
 
+    // Clé du localStorage où sont gardés les objets reçus de ce serveur
+    _cacheKey() {
+        return "scratchomised:" + this.protocol + "://" + this.server + ":" + this.port;
+    }
+
+    _loadCache() {
+        try {
+            const cache = JSON.parse(window.localStorage.getItem(this._cacheKey()));
+            if (cache && cache.version && cache.objects) {
+                return cache;
+            }
+        } catch (error) {
+            console.warn(this._prefix + "unable to read cached objects: " + error);
+        }
+        return null;
+    }
+
+    // Les objets sont écrits un peu après la dernière modification, pour ne pas réécrire le cache à chaque message
+    _scheduleCacheSave() {
+        if (this._cacheSaveTimeout !== null) {
+            return;
+        }
+        this._cacheSaveTimeout = setTimeout(() => {
+            this._cacheSaveTimeout = null;
+            if (this._version === null) {
+                return;
+            }
+            try {
+                window.localStorage.setItem(this._cacheKey(), JSON.stringify({ version: this._version, objects: this._objects }));
+            } catch (error) {
+                console.warn(this._prefix + "unable to cache objects: " + error);
+            }
+        }, 1000);
+    }
+
+    _removeCache() {
+        if (this._cacheSaveTimeout !== null) {
+            clearTimeout(this._cacheSaveTimeout);
+            this._cacheSaveTimeout = null;
+        }
+        try {
+            window.localStorage.removeItem(this._cacheKey());
+        } catch (error) {
+            // Pas de localStorage : rien à supprimer
+        }
+    }
+
     // Function to send data to the server
     _send(action, args = {}) {
         try {
@@ -600,8 +852,10 @@ class Scratchomised {
         
         try {
             const wsUrl = this.protocol + "://" + this.server + ":" + this.port;
-            console.log(this._prefix + "attempting to connect to: " + wsUrl + " with protocol 'scratchomised'");
-            this.socket = new WebSocket(wsUrl, "scratchomised");
+            console.log(this._prefix + "attempting to connect to: " + wsUrl + " with protocols 'scratchomised.bin', 'scratchomised'");
+            // Le serveur choisit le protocole binaire s'il le connaît, sinon JSON
+            this.socket = new WebSocket(wsUrl, ["scratchomised.bin", "scratchomised"]);
+            this.socket.binaryType = "arraybuffer";
             console.log(this._prefix + "WebSocket created, initial readyState: " + this.socket.readyState);
             this.socket.addEventListener("message", this._handleIncomingData.bind(this));
             
@@ -615,9 +869,17 @@ class Scratchomised {
                 setTimeout(() => {
                     try {
                         if (this.socket && this.socket.readyState === WebSocket.OPEN) {
-                            console.log(this._prefix + "sending client_ready message");
-                            this._send("client_ready", {});
-                            console.log(this._prefix + "client_ready message sent");
+                            if (this._epoch !== null && this._lastSeq !== null) {
+                                // Objets déjà reçus : ne demander que les modifications manquées
+                                console.log(this._prefix + "sending resume message from sequence " + this._lastSeq);
+                                this._send("resume", { epoch: this._epoch, last_seq: this._lastSeq });
+                            } else {
+                                // Objets gardés lors d'un chargement précédent : le serveur ne les renvoie pas s'ils sont à jour
+                                const cache = this._loadCache();
+                                console.log(this._prefix + "sending client_ready message" + (cache ? " with cached version " + cache.version : ""));
+                                this._send("client_ready", cache ? { version: cache.version } : {});
+                                console.log(this._prefix + "client_ready message sent");
+                            }
                         } else {
                             console.warn(this._prefix + "cannot send client_ready: socket state is " + (this.socket ? this.socket.readyState : "null"));
                         }
@@ -705,15 +967,16 @@ class Scratchomised {
                 return;
             }
             
-            let dataLength = event.data.length;
-            console.log(this._prefix + "received message, size: " + dataLength + " chars");
+            const binary = event.data instanceof ArrayBuffer;
+            let dataLength = binary ? event.data.byteLength : event.data.length;
+            console.log(this._prefix + "received message, size: " + dataLength + (binary ? " bytes" : " chars"));
             
             let message;
             try {
-                message = JSON.parse(event.data);
+                message = binary ? new ScratchomisedCborDecoder(event.data).decode() : JSON.parse(event.data);
                 console.log(this._prefix + "message parsed successfully, action: " + (message ? message.action : "null"));
             } catch (error) {
-                console.error(this._prefix + "unable to parse message : \n" + (event.data ? event.data.substring(0, 200) + "..." : "null") + "\n" + this._prefix + " got error : " + error);
+                console.error(this._prefix + "unable to parse message : \n" + (binary ? "(binary)" : event.data.substring(0, 200) + "...") + "\n" + this._prefix + " got error : " + error);
                 // Ne pas fermer la connexion en cas d'erreur de parsing
                 return;
             }
@@ -786,6 +1049,14 @@ class Scratchomised {
                     
                     // Remplacer les objets seulement si le traitement a réussi
                     this._objects = newObjects;
+                    if (message.args.seq !== undefined) {
+                        this._epoch = message.args.epoch;
+                        this._lastSeq = message.args.seq;
+                    }
+                    if (message.args.version !== undefined) {
+                        this._version = message.args.version;
+                        this._scheduleCacheSave();
+                    }
                     
                     // Incrémenter le compteur pour signaler que les menus doivent être réévalués
                     this._menuVersion++;
@@ -797,6 +1068,112 @@ class Scratchomised {
                 }
                 break;
             }
+            case "update_objects_chunk": {
+                // Partie d'un envoi de tous les objets : les objets reçus sont utilisables tout de suite
+                if (!message.args || !message.args.objects) {
+                    console.error(this._prefix + "missing argument for action update_objects_chunk : objects");
+                    return;
+                }
+                try {
+                    if (message.args.index === 0) {
+                        this._chunkObjectIds = {};
+                    }
+                    const objects = message.args.objects;
+                    for (let i = 0; i < objects.length; i++) {
+                        if (objects[i] && objects[i]["id"]) {
+                            this._objects[objects[i].id] = objects[i];
+                            this._chunkObjectIds[objects[i].id] = true;
+                        }
+                    }
+                    if (message.args.index === message.args.chunks - 1) {
+                        // Dernière partie : retirer les objets qui n'existent plus
+                        const ids = Object.keys(this._objects);
+                        for (let i = 0; i < ids.length; i++) {
+                            if (!this._chunkObjectIds[ids[i]]) {
+                                delete this._objects[ids[i]];
+                            }
+                        }
+                        this._chunkObjectIds = {};
+                        this._epoch = message.args.epoch;
+                        this._lastSeq = message.args.seq;
+                        this._version = message.args.version;
+                        this._scheduleCacheSave();
+                    }
+                    this._menuVersion++;
+                    console.log(this._prefix + "received objects " + message.args.progress + "/" + message.args.total + " (part " + (message.args.index + 1) + "/" + message.args.chunks + ")");
+                } catch (error) {
+                    console.error(this._prefix + "error processing update_objects_chunk: " + error);
+                }
+                break;
+            }
+            case "object_delta": {
+                // Message reçu quand seuls quelques objets ont changé : appliquer les différences
+                if (!message.args) {
+                    console.error(this._prefix + "missing arguments for action object_delta");
+                    return;
+                }
+                try {
+                    let menusChanged = false;
+                    const added = message.args.added || [];
+                    for (let i = 0; i < added.length; i++) {
+                        if (added[i] && added[i]["id"]) {
+                            this._objects[added[i].id] = added[i];
+                            menusChanged = true;
+                        }
+                    }
+                    const removed = message.args.removed || [];
+                    for (let i = 0; i < removed.length; i++) {
+                        delete this._objects[removed[i]];
+                        menusChanged = true;
+                    }
+                    const changed = message.args.changed || [];
+                    for (let i = 0; i < changed.length; i++) {
+                        const change = changed[i];
+                        if (change && this._objects[change.id]) {
+                            if (change.removed) {
+                                // Propriété qui n'est plus envoyée pour cet objet
+                                delete this._objects[change.id][change.property];
+                            } else {
+                                this._objects[change.id][change.property] = change.value;
+                            }
+                            if (change.property === "name") {
+                                menusChanged = true;
+                            }
+                        }
+                    }
+                    if (menusChanged) {
+                        this._menuVersion++;
+                    }
+                    if (message.args.seq !== undefined) {
+                        this._lastSeq = message.args.seq;
+                    }
+                    if (message.args.version !== undefined) {
+                        this._version = message.args.version;
+                        this._scheduleCacheSave();
+                    }
+                    console.log(this._prefix + "applied object_delta: " + changed.length + " changed, " + added.length + " added, " + removed.length + " removed");
+                } catch (error) {
+                    console.error(this._prefix + "error processing object_delta: " + error);
+                }
+                break;
+            }
+            case "up_to_date": {
+                // Les objets gardés lors d'un chargement précédent sont à jour : les utiliser sans les recevoir
+                const cache = this._loadCache();
+                if (!cache || !message.args || cache.version !== message.args.version) {
+                    // Cache modifié entre-temps (autre onglet) : redemander tous les objets
+                    console.warn(this._prefix + "cached objects changed, asking for all objects");
+                    this._send("client_ready", {});
+                    break;
+                }
+                this._objects = cache.objects;
+                this._version = cache.version;
+                this._epoch = message.args.epoch;
+                this._lastSeq = message.args.seq;
+                this._menuVersion++;
+                console.log(this._prefix + "cached objects are up to date: " + Object.keys(this._objects).length + " objects (version " + this._version + ")");
+                break;
+            }
             case "object_clicked": {
                 // Message reçu quand un objet est cliqué dans SweetHome3D
                 if (message.args && message.args.object_id) {
@@ -807,6 +1184,13 @@ class Scratchomised {
                 }
                 break;
             }
+            case "error": {
+                // Demande refusée par le serveur
+                if (message.args) {
+                    console.error(this._prefix + "server refused " + message.args.request + ": " + message.args.message);
+                }
+                break;
+            }
             default: {
                 console.warn(this._prefix + "unknown action : " + message.action);
             }
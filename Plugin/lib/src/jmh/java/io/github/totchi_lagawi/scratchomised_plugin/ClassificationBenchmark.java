@@ -0,0 +1,55 @@
+package io.github.totchi_lagawi.scratchomised_plugin;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.eteks.sweethome3d.model.HomePieceOfFurniture;
+
+/**
+ * Classement des meubles de tout le plan, avec le cache (cas courant) et après
+ * un renommage de chaque meuble (le cache est invalidé)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ClassificationBenchmark {
+    private boolean _renamed = false;
+
+    @Benchmark
+    public int classifyCached(SyntheticHome syntheticHome) {
+        int exported = 0;
+        for (HomePieceOfFurniture furniture : syntheticHome.furniture) {
+            if (FurnitureClassifier.getInstance().isExported(furniture)) {
+                exported++;
+            }
+        }
+        return exported;
+    }
+
+    @Benchmark
+    public int classifyRenamed(SyntheticHome syntheticHome) {
+        // Le nom alterne entre deux valeurs, sans changer la catégorie du meuble
+        this._renamed = !this._renamed;
+        int exported = 0;
+        for (HomePieceOfFurniture furniture : syntheticHome.furniture) {
+            String name = furniture.getName();
+            furniture.setName(this._renamed ? name + "'" : name.substring(0, name.length() - 1));
+            if (FurnitureClassifier.getInstance().isExported(furniture)) {
+                exported++;
+            }
+        }
+        return exported;
+    }
+}
@@ -0,0 +1,95 @@
+package io.github.totchi_lagawi.scratchomised_plugin;
+
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.UpgradeResponse;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Envoi d'un clic à toutes les sessions ouvertes, par le registre des sessions.
+ * Les sessions sont simulées : chaque envoi réussit immédiatement, seul le
+ * travail du plugin (encodage, files d'envoi) est mesuré.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ClickFanOutBenchmark {
+    @Param({ "1", "30", "300" })
+    public int sessions;
+
+    @Param({ "scratchomised", "scratchomised.bin" })
+    public String subProtocol;
+
+    private PluginServerSessionRegistry _sessionRegistry;
+
+    @Setup
+    public void connectSessions() {
+        LanguageManager languageManager = new LanguageManager("en");
+        PluginServerSettings settings = new PluginServerSettings();
+        this._sessionRegistry = new PluginServerSessionRegistry(null, null);
+        for (int i = 0; i < this.sessions; i++) {
+            PluginServerWebSocketEndpoint endpoint = new PluginServerWebSocketEndpoint(languageManager, null, null, null,
+                    null, null, this._sessionRegistry, null, settings);
+            endpoint.onWebSocketConnect(createSession(this.subProtocol, i));
+        }
+    }
+
+    /**
+     * Crée une session WebSocket dont les envois réussissent immédiatement
+     */
+    private static Session createSession(String subProtocol, int index) {
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", 10000 + index);
+        RemoteEndpoint remote = (RemoteEndpoint) Proxy.newProxyInstance(RemoteEndpoint.class.getClassLoader(),
+                new Class<?>[] { RemoteEndpoint.class }, (proxy, method, args) -> {
+                    if (args != null && args.length == 2 && args[1] instanceof WriteCallback) {
+                        ((WriteCallback) args[1]).writeSuccess();
+                    }
+                    return null;
+                });
+        UpgradeResponse upgradeResponse = (UpgradeResponse) Proxy.newProxyInstance(
+                UpgradeResponse.class.getClassLoader(), new Class<?>[] { UpgradeResponse.class },
+                (proxy, method, args) -> "getAcceptedSubProtocol".equals(method.getName()) ? subProtocol : null);
+        return (Session) Proxy.newProxyInstance(Session.class.getClassLoader(), new Class<?>[] { Session.class },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "isOpen":
+                            return true;
+                        case "getRemote":
+                            return remote;
+                        case "getRemoteAddress":
+                            return address;
+                        case "getUpgradeResponse":
+                            return upgradeResponse;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    @Benchmark
+    public int clickFanOut() {
+        return this._sessionRegistry.queueClickMessage("lamp-1");
+    }
+}
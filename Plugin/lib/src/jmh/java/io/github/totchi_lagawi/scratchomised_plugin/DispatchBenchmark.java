@@ -0,0 +1,78 @@
+package io.github.totchi_lagawi.scratchomised_plugin;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.eteks.sweethome3d.model.HomePieceOfFurniture;
+import com.fasterxml.jackson.jr.ob.JSON;
+
+/**
+ * Traitement d'un message define_property reçu d'un client : décodage, recherche
+ * de l'objet et du setter, conversion de la valeur puis modification. Le passage
+ * par le thread de l'interface n'est pas mesuré.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DispatchBenchmark {
+    private JSON _json = new JSON();
+    private FurnitureIndex _furnitureIndex;
+    private String[] _messages;
+    private int _next = 0;
+
+    @Setup
+    public void createMessages(SyntheticHome syntheticHome) {
+        this._furnitureIndex = new FurnitureIndex(syntheticHome.home);
+        // Quelques centaines de messages différents, pour ne pas toujours toucher le même objet
+        this._messages = new String[Math.min(syntheticHome.pieces, 512)];
+        for (int i = 0; i < this._messages.length; i++) {
+            String id = syntheticHome.ids[i * syntheticHome.pieces / this._messages.length];
+            this._messages[i] = "{\"action\":\"define_property\",\"args\":{\"object\":\"" + id
+                    + "\",\"property\":\"x\",\"value\":\"" + (i * 10) + "\"}}";
+        }
+    }
+
+    @TearDown
+    public void dispose() {
+        this._furnitureIndex.dispose();
+    }
+
+    @Benchmark
+    public Object defineProperty() throws Throwable {
+        String message = this._messages[this._next];
+        this._next = (this._next + 1) % this._messages.length;
+
+        ScratchomisedRequest request = this._json.beanFrom(ScratchomisedRequest.class, message);
+        HomePieceOfFurniture furniture = this._furnitureIndex.get(request.args.get("object"));
+        PropertyAccessor accessor = PropertyAccessorRegistry.getInstance().getAccessor(furniture.getClass(),
+                String.valueOf(request.args.get("property")));
+        Object value = accessor.parse(String.valueOf(request.args.get("value")));
+        accessor.set(furniture, value);
+        return value;
+    }
+
+    /**
+     * Décodage seul, pour séparer son coût de celui de la modification
+     */
+    @Benchmark
+    public ScratchomisedRequest parseOnly() throws IOException {
+        String message = this._messages[this._next];
+        this._next = (this._next + 1) % this._messages.length;
+        return this._json.beanFrom(ScratchomisedRequest.class, message);
+    }
+}
@@ -0,0 +1,83 @@
+package io.github.totchi_lagawi.scratchomised_plugin;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.eteks.sweethome3d.model.HomePieceOfFurniture;
+
+/**
+ * Encodage de update_objects (instantané envoyé à client_ready), comme le fait
+ * PluginServerHomeObserver. Avec -prof gc, donne aussi la mémoire allouée par
+ * objet.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class EncodingBenchmark {
+    private HomePieceOfFurniture[] _exportedFurniture;
+    private PluginServerObjectState[] _states;
+
+    @Setup
+    public void captureStates(SyntheticHome syntheticHome) {
+        ArrayList<HomePieceOfFurniture> exportedFurniture = new ArrayList<HomePieceOfFurniture>();
+        for (HomePieceOfFurniture furniture : syntheticHome.furniture) {
+            if (FurnitureClassifier.getInstance().isExported(furniture)) {
+                exportedFurniture.add(furniture);
+            }
+        }
+        this._exportedFurniture = exportedFurniture.toArray(new HomePieceOfFurniture[0]);
+        this._states = new PluginServerObjectState[this._exportedFurniture.length];
+        for (int i = 0; i < this._states.length; i++) {
+            this._states[i] = PluginServerObjectState.capture(this._exportedFurniture[i], null);
+        }
+    }
+
+    private PluginServerFrame createSnapshotFrame() {
+        PluginServerObjectState[] states = this._states;
+        return new PluginServerFrame("update_objects", (generator) -> {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("objects");
+            for (PluginServerObjectState state : states) {
+                state.write(generator, PluginServerSubscription.ALL);
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        });
+    }
+
+    @Benchmark
+    public String snapshotJson() throws IOException {
+        return this.createSnapshotFrame().getText();
+    }
+
+    @Benchmark
+    public byte[] snapshotCbor() throws IOException {
+        return this.createSnapshotFrame().getBinary();
+    }
+
+    /**
+     * Relecture des objets pour trouver ceux qui ont changé, quand aucun n'a changé
+     */
+    @Benchmark
+    public void captureUnchanged(Blackhole blackhole) {
+        for (int i = 0; i < this._exportedFurniture.length; i++) {
+            blackhole.consume(PluginServerObjectState.capture(this._exportedFurniture[i], this._states[i]));
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package io.github.totchi_lagawi.scratchomised_plugin;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.eteks.sweethome3d.model.CatalogPieceOfFurniture;
+import com.eteks.sweethome3d.model.Home;
+import com.eteks.sweethome3d.model.HomePieceOfFurniture;
+
+/**
+ * Plan généré pour les benchmarks : un tiers de lampes, un tiers
+ * d'interrupteurs (exportés) et un tiers de meubles ordinaires (filtrés)
+ */
+@State(Scope.Benchmark)
+public class SyntheticHome {
+    private static final String[] NAMES = { "Lamp", "Switch", "Chair" };
+
+    @Param({ "10", "1000", "10000" })
+    public int pieces;
+
+    public Home home;
+    public HomePieceOfFurniture[] furniture;
+    public String[] ids;
+
+    @Setup(Level.Trial)
+    public void createHome() {
+        this.home = new Home();
+        this.furniture = new HomePieceOfFurniture[this.pieces];
+        this.ids = new String[this.pieces];
+        for (int i = 0; i < this.pieces; i++) {
+            String name = NAMES[i % NAMES.length];
+            CatalogPieceOfFurniture catalogPiece = new CatalogPieceOfFurniture(name, null, null, 50, 50, 100, true,
+                    false);
+            HomePieceOfFurniture piece = new HomePieceOfFurniture(catalogPiece);
+            piece.setName(name + " " + i);
+            piece.setX(i % 100 * 60);
+            piece.setY(i / 100 * 60);
+            this.home.addPieceOfFurniture(piece);
+            this.furniture[i] = piece;
+            this.ids[i] = piece.getId();
+        }
+    }
+}
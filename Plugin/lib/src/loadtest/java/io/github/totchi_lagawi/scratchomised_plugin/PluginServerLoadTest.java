@@ -0,0 +1,304 @@
+package io.github.totchi_lagawi.scratchomised_plugin;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WebSocketListener;
+import org.eclipse.jetty.websocket.client.ClientUpgradeRequest;
+import org.eclipse.jetty.websocket.client.WebSocketClient;
+
+import com.eteks.sweethome3d.model.CatalogPieceOfFurniture;
+import com.eteks.sweethome3d.model.Home;
+import com.eteks.sweethome3d.model.HomePieceOfFurniture;
+import com.fasterxml.jackson.jr.ob.JSON;
+
+/**
+ * Test de charge du serveur, sans interface : démarre un PluginServer sur un plan
+ * généré, y connecte N clients (sous-protocole scratchomised) en local, puis
+ * envoie des define_property et des clics à un rythme donné.
+ *
+ * Mesure la latence de bout en bout (envoi du define_property jusqu'à la
+ * réception de l'object_delta correspondant, clic jusqu'à la réception de
+ * l'object_clicked), le débit et la mémoire utilisée. Les clients tournent dans
+ * la même JVM que le serveur : la mémoire mesurée est celle des deux.
+ *
+ * Lancement : ./gradlew :lib:loadTest -PloadTestArgs="--clients 30 --duration 60"
+ */
+public class PluginServerLoadTest {
+    private int _clients = 30;
+    private int _pieces = 300;
+    private int _duration = 30;
+    // Messages par seconde, tous clients confondus
+    private double _defineRate = 50;
+    private double _clickRate = 2;
+
+    private Home _home;
+    private ArrayList<String> _exportedIds = new ArrayList<String>();
+    private ArrayList<Client> _connectedClients = new ArrayList<Client>();
+    // Valeurs envoyées par define_property, uniques, pour reconnaître la modification en retour
+    private AtomicInteger _nextValue = new AtomicInteger(1);
+    // Heure d'envoi de chaque clic, par objet cliqué
+    private ConcurrentHashMap<String, Long> _clickTimes = new ConcurrentHashMap<String, Long>();
+    private AtomicInteger _nextClick = new AtomicInteger();
+    private AtomicLong _sentDefines = new AtomicLong();
+    private AtomicLong _sentClicks = new AtomicLong();
+    private AtomicLong _receivedMessages = new AtomicLong();
+    private Latencies _defineLatencies = new Latencies();
+    private Latencies _clickLatencies = new Latencies();
+
+    /**
+     * Latences mesurées (en nanosecondes)
+     */
+    private static class Latencies {
+        private long[] _values = new long[1024];
+        private int _size = 0;
+
+        synchronized void add(long latency) {
+            if (this._size == this._values.length) {
+                this._values = Arrays.copyOf(this._values, this._size * 2);
+            }
+            this._values[this._size++] = latency;
+        }
+
+        synchronized String summary() {
+            if (this._size == 0) {
+                return "no sample";
+            }
+            long[] sorted = Arrays.copyOf(this._values, this._size);
+            Arrays.sort(sorted);
+            return String.format("%d samples, p50 %.2f ms, p99 %.2f ms, max %.2f ms", this._size,
+                    percentile(sorted, 0.50) / 1e6, percentile(sorted, 0.99) / 1e6, sorted[sorted.length - 1] / 1e6);
+        }
+
+        private static long percentile(long[] sorted, double percentile) {
+            return sorted[Math.min(sorted.length - 1, (int) Math.ceil(percentile * sorted.length) - 1)];
+        }
+    }
+
+    /**
+     * Client simulé, comme un onglet Scratch avec l'extension
+     */
+    private class Client implements WebSocketListener {
+        private Session _session;
+        private CountDownLatch _ready = new CountDownLatch(1);
+        // Heure d'envoi des define_property de ce client, par valeur envoyée
+        private Map<Integer, Long> _pendingDefines = new ConcurrentHashMap<Integer, Long>();
+
+        @Override
+        public void onWebSocketConnect(Session session) {
+            this._session = session;
+            this.send("{\"action\":\"client_ready\",\"args\":{}}");
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void onWebSocketText(String message) {
+            long receivedTime = System.nanoTime();
+            _receivedMessages.incrementAndGet();
+            Map<String, Object> request;
+            try {
+                request = JSON.std.mapFrom(message);
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                return;
+            }
+            Object action = request.get("action");
+            Map<String, Object> args = (Map<String, Object>) request.get("args");
+            if ("update_objects".equals(action) || ("update_objects_chunk".equals(action) && args != null
+                    && args.get("progress") != null && args.get("progress").equals(args.get("total")))) {
+                this._ready.countDown();
+            } else if ("object_delta".equals(action) && args != null && args.get("changed") instanceof java.util.List) {
+                for (Object change : (java.util.List<Object>) args.get("changed")) {
+                    Map<String, Object> changeMap = (Map<String, Object>) change;
+                    if ("x".equals(changeMap.get("property")) && changeMap.get("value") instanceof Number) {
+                        Long sentTime = this._pendingDefines.remove(((Number) changeMap.get("value")).intValue());
+                        if (sentTime != null) {
+                            _defineLatencies.add(receivedTime - sentTime);
+                        }
+                    }
+                }
+            } else if ("object_clicked".equals(action) && args != null) {
+                Long sentTime = _clickTimes.get(String.valueOf(args.get("object_id")));
+                if (sentTime != null) {
+                    _clickLatencies.add(receivedTime - sentTime);
+                }
+            }
+        }
+
+        void defineProperty(String objectId, int value) {
+            this._pendingDefines.put(value, System.nanoTime());
+            this.send("{\"action\":\"define_property\",\"args\":{\"object\":\"" + objectId
+                    + "\",\"property\":\"x\",\"value\":\"" + value + "\"}}");
+            _sentDefines.incrementAndGet();
+        }
+
+        private void send(String message) {
+            Session session = this._session;
+            if (session != null && session.isOpen()) {
+                session.getRemote().sendString(message, null);
+            }
+        }
+
+        @Override
+        public void onWebSocketBinary(byte[] payload, int offset, int len) {
+        }
+
+        @Override
+        public void onWebSocketClose(int statusCode, String reason) {
+            System.out.println("Client disconnected: " + statusCode + " " + reason);
+        }
+
+        @Override
+        public void onWebSocketError(Throwable cause) {
+            cause.printStackTrace();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        PluginServerLoadTest loadTest = new PluginServerLoadTest();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--clients":
+                    loadTest._clients = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--pieces":
+                    loadTest._pieces = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--duration":
+                    loadTest._duration = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--define-rate":
+                    loadTest._defineRate = Double.parseDouble(args[i + 1]);
+                    break;
+                case "--click-rate":
+                    loadTest._clickRate = Double.parseDouble(args[i + 1]);
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i]
+                            + " (options: --clients, --pieces, --duration, --define-rate, --click-rate)");
+                    System.exit(1);
+            }
+        }
+        loadTest.run();
+        System.exit(0);
+    }
+
+    private void run() throws Exception {
+        this.createHome();
+        int port;
+        // Un port libre, le serveur n'écoute qu'en local
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        // Réglages par défaut : le fichier de l'utilisateur ne doit pas changer la mesure
+        PluginServerSettings settings = new PluginServerSettings();
+        settings.bind_address = "127.0.0.1";
+        PluginServer server = new PluginServer(port, new LanguageManager("en"), this._home, null, null, null,
+                settings);
+        server.run();
+
+        WebSocketClient webSocketClient = new WebSocketClient();
+        webSocketClient.start();
+        ScheduledExecutorService executor = Executors.newScheduledThreadPool(2);
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        try {
+            System.out.println("Connecting " + this._clients + " clients to ws://127.0.0.1:" + port + " ("
+                    + this._exportedIds.size() + " exported objects)");
+            for (int i = 0; i < this._clients; i++) {
+                Client client = new Client();
+                ClientUpgradeRequest request = new ClientUpgradeRequest();
+                request.setSubProtocols("scratchomised");
+                webSocketClient.connect(client, new URI("ws://127.0.0.1:" + port + "/"), request);
+                this._connectedClients.add(client);
+            }
+            for (Client client : this._connectedClients) {
+                if (!client._ready.await(30, TimeUnit.SECONDS)) {
+                    throw new IllegalStateException("A client didn't receive update_objects");
+                }
+            }
+            System.out.println("All clients received update_objects, running for " + this._duration + " s");
+
+            if (this._defineRate > 0) {
+                AtomicInteger nextClient = new AtomicInteger();
+                executor.scheduleAtFixedRate(() -> {
+                    int value = this._nextValue.getAndIncrement();
+                    Client client = this._connectedClients.get(nextClient.getAndIncrement() % this._connectedClients.size());
+                    // Un objet différent à chaque fois, pour que les modifications ne se remplacent pas
+                    client.defineProperty(this._exportedIds.get(value % this._exportedIds.size()), value);
+                }, 0, (long) (1e9 / this._defineRate), TimeUnit.NANOSECONDS);
+            }
+            if (this._clickRate > 0) {
+                executor.scheduleAtFixedRate(() -> {
+                    String objectId = this._exportedIds.get(this._nextClick.getAndIncrement() % this._exportedIds.size());
+                    this._clickTimes.put(objectId, System.nanoTime());
+                    this._sentClicks.incrementAndGet();
+                    // Comme PluginClickListener, sans la vue 3D
+                    server.sendClickMessage(objectId);
+                }, 0, (long) (1e9 / this._clickRate), TimeUnit.NANOSECONDS);
+            }
+
+            long previousReceived = 0;
+            long peakHeap = 0;
+            for (int second = 1; second <= this._duration; second++) {
+                Thread.sleep(1000);
+                long received = this._receivedMessages.get();
+                long heap = memory.getHeapMemoryUsage().getUsed();
+                peakHeap = Math.max(peakHeap, heap);
+                System.out.println(String.format("[%3d s] %d messages received/s, %d define_property sent, heap %d MB",
+                        second, received - previousReceived, this._sentDefines.get(), heap / (1024 * 1024)));
+                previousReceived = received;
+            }
+            executor.shutdownNow();
+            // Laisser arriver les dernières réponses
+            Thread.sleep(1000);
+
+            System.out.println();
+            System.out.println("Clients: " + this._clients + ", exported objects: " + this._exportedIds.size());
+            System.out.println(String.format("Sent: %d define_property (%.1f/s), %d clicks (%.1f/s)",
+                    this._sentDefines.get(), this._sentDefines.get() / (double) this._duration, this._sentClicks.get(),
+                    this._sentClicks.get() / (double) this._duration));
+            System.out.println(String.format("Received: %d messages (%.1f/s)", this._receivedMessages.get(),
+                    this._receivedMessages.get() / (double) this._duration));
+            System.out.println("define_property latency: " + this._defineLatencies.summary());
+            System.out.println("click latency: " + this._clickLatencies.summary());
+            System.out.println("Peak heap: " + peakHeap / (1024 * 1024) + " MB (server and clients)");
+        } finally {
+            executor.shutdownNow();
+            webSocketClient.stop();
+            server.stop();
+        }
+    }
+
+    /**
+     * Crée un plan de lampes, d'interrupteurs et de meubles ordinaires
+     */
+    private void createHome() {
+        String[] names = { "Lamp", "Switch", "Chair" };
+        this._home = new Home();
+        for (int i = 0; i < this._pieces; i++) {
+            String name = names[i % names.length];
+            HomePieceOfFurniture piece = new HomePieceOfFurniture(
+                    new CatalogPieceOfFurniture(name, null, null, 50, 50, 100, true, false));
+            piece.setName(name + " " + i);
+            this._home.addPieceOfFurniture(piece);
+            if (FurnitureClassifier.getInstance().isExported(piece)) {
+                this._exportedIds.add(piece.getId());
+            }
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package io.github.totchi_lagawi.scratchomised_plugin;
+
+/**
+ * Catégories dans lesquelles un meuble peut être classé par le
+ * {@link FurnitureClassifier}
+ */
+public enum FurnitureCategory {
+    // Lumière, lampe ou interrupteur : envoyé aux clients Scratch
+    EXPORTED,
+    // Interrupteur : un clic dessus dans la vue 3D est transmis aux clients
+    SWITCH
+}
@@ -0,0 +1,72 @@
+package io.github.totchi_lagawi.scratchomised_plugin;
+
+import java.util.regex.Pattern;
+
+import com.eteks.sweethome3d.model.HomePieceOfFurniture;
+
+/**
+ * Règle classant un meuble dans une catégorie si son nom de classe, son
+ * catalogId ou son nom correspond à un motif (insensible à la casse)
+ */
+public class FurnitureClassificationRule {
+    public enum Target {
+        // Nom de la classe du meuble ou d'une de ses superclasses (ex : HomeLight)
+        CLASS_NAME,
+        // Identifiant de catalogue, non traduit (ex : "Scopia#square-switch")
+        CATALOG_ID,
+        // Nom du meuble, qui peut être traduit ou modifié par l'utilisateur
+        NAME
+    }
+
+    private Target _target;
+    private Pattern _pattern;
+    private FurnitureCategory _category;
+
+    public FurnitureClassificationRule(Target target, String pattern, FurnitureCategory category) {
+        this._target = target;
+        this._pattern = Pattern.compile(pattern, Pattern.CASE_INSENSITIVE);
+        this._category = category;
+    }
+
+    /**
+     * Règle sans catégorie, utilisée par exemple pour choisir une projection
+     */
+    public FurnitureClassificationRule(Target target, String pattern) {
+        this(target, pattern, null);
+    }
+
+    public FurnitureCategory getCategory() {
+        return this._category;
+    }
+
+    public Target getTarget() {
+        return this._target;
+    }
+
+    public String getPattern() {
+        return this._pattern.pattern();
+    }
+
+    /**
+     * Vérifie si le meuble correspond à cette règle
+     */
+    public boolean matches(HomePieceOfFurniture furniture) {
+        switch (this._target) {
+            case CLASS_NAME:
+                Class<?> current_class = furniture.getClass();
+                while (current_class != null && current_class != Object.class) {
+                    if (this._pattern.matcher(current_class.getName()).find()) {
+                        return true;
+                    }
+                    current_class = current_class.getSuperclass();
+                }
+                return false;
+            case CATALOG_ID:
+                return furniture.getCatalogId() != null && this._pattern.matcher(furniture.getCatalogId()).find();
+            case NAME:
+                return furniture.getName() != null && this._pattern.matcher(furniture.getName()).find();
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package io.github.totchi_lagawi.scratchomised_plugin;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.eteks.sweethome3d.model.HomePieceOfFurniture;
+
+/**
+ * Classe les meubles (lumières, interrupteurs...) à partir de règles, choisit
+ * les propriétés envoyées pour chacun (sa projection), et garde le résultat en
+ * cache pour chaque meuble. Le cache d'un meuble n'est invalidé que lorsque son
+ * nom ou son catalogId change.
+ */
+public class FurnitureClassifier implements PropertyChangeListener {
+    private static final FurnitureClassifier _instance = new FurnitureClassifier();
+    private CopyOnWriteArrayList<FurnitureClassificationRule> _rules = new CopyOnWriteArrayList<>();
+    // Projections, dans l'ordre où elles sont essayées
+    private volatile List<PluginServerProjection> _projections = PluginServerProjection.loadDefault();
+    // Clés faibles : un meuble supprimé du plan peut être libéré
+    private Map<HomePieceOfFurniture, Classification> _classifications = new WeakHashMap<HomePieceOfFurniture, Classification>();
+    // Nombre d'invalidations de chaque meuble : un classement calculé pendant
+    // qu'il change de nom n'est pas mis en cache
+    private Map<HomePieceOfFurniture, Integer> _stamps = new WeakHashMap<HomePieceOfFurniture, Integer>();
+    private int _rulesStamp = 0;
+
+    /**
+     * Résultat du classement d'un meuble
+     */
+    private static class Classification {
+        final Set<FurnitureCategory> categories;
+        final PluginServerProjection projection;
+
+        Classification(Set<FurnitureCategory> categories, PluginServerProjection projection) {
+            this.categories = categories;
+            this.projection = projection;
+        }
+    }
+
+    private FurnitureClassifier() {
+        // Lumières, lampes et interrupteurs envoyés aux clients
+        this.addRule(new FurnitureClassificationRule(FurnitureClassificationRule.Target.CLASS_NAME,
+                "light|lamp|switch", FurnitureCategory.EXPORTED));
+        this.addRule(new FurnitureClassificationRule(FurnitureClassificationRule.Target.CATALOG_ID,
+                "switch|light|lamp", FurnitureCategory.EXPORTED));
+        this.addRule(new FurnitureClassificationRule(FurnitureClassificationRule.Target.NAME,
+                "switch|light|lamp|interrupteur", FurnitureCategory.EXPORTED));
+        // Interrupteurs cliquables dans la vue 3D
+        this.addRule(new FurnitureClassificationRule(FurnitureClassificationRule.Target.CATALOG_ID,
+                "switch|interrupteur", FurnitureCategory.SWITCH));
+        this.addRule(new FurnitureClassificationRule(FurnitureClassificationRule.Target.NAME,
+                "switch|interrupteur", FurnitureCategory.SWITCH));
+    }
+
+    public static FurnitureClassifier getInstance() {
+        return _instance;
+    }
+
+    /**
+     * Ajoute une règle de classement, et vide le cache pour qu'elle s'applique à
+     * tous les meubles
+     */
+    public void addRule(FurnitureClassificationRule rule) {
+        this._rules.add(rule);
+        synchronized (this) {
+            this._rulesStamp++;
+            this._classifications.clear();
+        }
+    }
+
+    /**
+     * Retire une règle de classement
+     */
+    public void removeRule(FurnitureClassificationRule rule) {
+        if (this._rules.remove(rule)) {
+            synchronized (this) {
+                this._rulesStamp++;
+                this._classifications.clear();
+            }
+        }
+    }
+
+    /**
+     * Remplace les projections, et vide le cache pour qu'elles s'appliquent à
+     * tous les meubles
+     */
+    public void setProjections(List<PluginServerProjection> projections) {
+        this._projections = projections;
+        synchronized (this) {
+            this._rulesStamp++;
+            this._classifications.clear();
+        }
+    }
+
+    /**
+     * Renvoie une clé des projections utilisées, qui change quand les propriétés
+     * exportées changent
+     */
+    public int getProjectionsKey() {
+        int key = 1;
+        for (PluginServerProjection projection : this._projections) {
+            key = key * 31 + projection.getKey();
+        }
+        return key;
+    }
+
+    /**
+     * Renvoie les catégories d'un meuble, calculées une seule fois tant que son
+     * nom et son catalogId ne changent pas
+     */
+    public Set<FurnitureCategory> getCategories(HomePieceOfFurniture furniture) {
+        return this.getClassification(furniture).categories;
+    }
+
+    /**
+     * Renvoie la projection d'un meuble, c'est-à-dire les propriétés envoyées aux
+     * clients
+     */
+    public PluginServerProjection getProjection(HomePieceOfFurniture furniture) {
+        return this.getClassification(furniture).projection;
+    }
+
+    private Classification getClassification(HomePieceOfFurniture furniture) {
+        Integer stamp;
+        int rulesStamp;
+        synchronized (this) {
+            Classification classification = this._classifications.get(furniture);
+            if (classification != null) {
+                return classification;
+            }
+            stamp = this._stamps.get(furniture);
+            if (stamp == null) {
+                // Le listener est ajouté avant le premier classement du meuble, pour
+                // qu'un changement de nom pendant le calcul soit vu
+                stamp = 0;
+                this._stamps.put(furniture, stamp);
+                furniture.removePropertyChangeListener(this);
+                furniture.addPropertyChangeListener(this);
+            }
+            rulesStamp = this._rulesStamp;
+        }
+        // Le calcul se fait hors du verrou, le nom pouvant changer sur l'EDT
+        EnumSet<FurnitureCategory> computedCategories = EnumSet.noneOf(FurnitureCategory.class);
+        for (FurnitureClassificationRule rule : this._rules) {
+            if (!computedCategories.contains(rule.getCategory()) && rule.matches(furniture)) {
+                computedCategories.add(rule.getCategory());
+            }
+        }
+        PluginServerProjection projection = PluginServerProjection.ALL;
+        for (PluginServerProjection candidate : this._projections) {
+            if (candidate.matches(furniture)) {
+                projection = candidate;
+                break;
+            }
+        }
+        Classification classification = new Classification(Collections.unmodifiableSet(computedCategories),
+                projection);
+        synchronized (this) {
+            if (stamp.equals(this._stamps.get(furniture)) && rulesStamp == this._rulesStamp) {
+                this._classifications.put(furniture, classification);
+            }
+        }
+        return classification;
+    }
+
+    /**
+     * Vérifie si un objet est une lumière, lampe ou interrupteur
+     */
+    public boolean isExported(HomePieceOfFurniture furniture) {
+        return this.getCategories(furniture).contains(FurnitureCategory.EXPORTED);
+    }
+
+    /**
+     * Vérifie si un objet est un switch (interrupteur)
+     */
+    public boolean isSwitch(HomePieceOfFurniture furniture) {
+        return this.getCategories(furniture).contains(FurnitureCategory.SWITCH);
+    }
+
+    @Override
+    public void propertyChange(PropertyChangeEvent event) {
+        if (HomePieceOfFurniture.Property.NAME.name().equals(event.getPropertyName())
+                || HomePieceOfFurniture.Property.CATALOG_ID.name().equals(event.getPropertyName())) {
+            synchronized (this) {
+                Integer stamp = this._stamps.get(event.getSource());
+                if (stamp != null) {
+                    this._stamps.put((HomePieceOfFurniture) event.getSource(), stamp + 1);
+                }
+                this._classifications.remove(event.getSource());
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package io.github.totchi_lagawi.scratchomised_plugin;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.swing.SwingUtilities;
+
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+import com.eteks.sweethome3d.model.CollectionEvent;
+import com.eteks.sweethome3d.model.CollectionListener;
+import com.eteks.sweethome3d.model.Home;
+import com.eteks.sweethome3d.model.HomeFurnitureGroup;
+import com.eteks.sweethome3d.model.HomePieceOfFurniture;
+
+/**
+ * Index des meubles du plan par identifiant, y compris ceux contenus dans des
+ * groupes. Il est tenu à jour par les évènements d'ajout et de suppression du
+ * plan, pour que les commandes trouvent leur objet sans parcourir le plan.
+ */
+public class FurnitureIndex implements CollectionListener<HomePieceOfFurniture> {
+    private Home _home;
+    private ConcurrentHashMap<String, HomePieceOfFurniture> _furniture = new ConcurrentHashMap<>();
+    private Logger _logger = Log.getLogger(FurnitureIndex.class);
+
+    public FurnitureIndex(Home home) {
+        this._home = home;
+        if (this._home != null) {
+            // Le plan n'est modifié que par le thread de l'interface : l'écouteur y
+            // est ajouté en même temps que la liste des meubles est lue
+            runOnEventDispatchThread(() -> {
+                this._home.addFurnitureListener(this);
+                for (HomePieceOfFurniture furniture : this._home.getFurniture()) {
+                    this.add(furniture);
+                }
+            });
+        }
+    }
+
+    /**
+     * Renvoie le meuble ayant cet identifiant
+     *
+     * @return the piece of furniture, or null if there is none with this id
+     */
+    public HomePieceOfFurniture get(Object id) {
+        return id != null ? this._furniture.get(String.valueOf(id)) : null;
+    }
+
+    public int size() {
+        return this._furniture.size();
+    }
+
+    /**
+     * Arrête de suivre les modifications du plan
+     */
+    public void dispose() {
+        if (this._home != null) {
+            runOnEventDispatchThread(() -> this._home.removeFurnitureListener(this));
+        }
+        this._furniture.clear();
+    }
+
+    private void runOnEventDispatchThread(Runnable runnable) {
+        if (SwingUtilities.isEventDispatchThread()) {
+            runnable.run();
+        } else {
+            try {
+                SwingUtilities.invokeAndWait(runnable);
+            } catch (InvocationTargetException ex) {
+                this._logger.warn("Cannot index the home furniture", ex.getCause());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void collectionChanged(CollectionEvent<HomePieceOfFurniture> event) {
+        if (event.getType() == CollectionEvent.Type.ADD) {
+            this.add(event.getItem());
+        } else if (event.getType() == CollectionEvent.Type.DELETE) {
+            this.remove(event.getItem());
+        }
+    }
+
+    private void add(HomePieceOfFurniture furniture) {
+        for (HomePieceOfFurniture piece : getAllFurniture(furniture)) {
+            if (piece.getId() != null) {
+                this._furniture.put(piece.getId(), piece);
+            }
+        }
+    }
+
+    private void remove(HomePieceOfFurniture furniture) {
+        for (HomePieceOfFurniture piece : getAllFurniture(furniture)) {
+            if (piece.getId() != null) {
+                this._furniture.remove(piece.getId(), piece);
+            }
+        }
+    }
+
+    /**
+     * Renvoie un meuble et, si c'est un groupe, tous les meubles qu'il contient
+     */
+    public static List<HomePieceOfFurniture> getAllFurniture(HomePieceOfFurniture furniture) {
+        List<HomePieceOfFurniture> allFurniture = new ArrayList<HomePieceOfFurniture>();
+        addAllFurniture(furniture, allFurniture);
+        return allFurniture;
+    }
+
+    /**
+     * Renvoie tous les meubles d'une liste, y compris ceux contenus dans des
+     * groupes, dans l'ordre du plan
+     */
+    public static List<HomePieceOfFurniture> getAllFurniture(List<HomePieceOfFurniture> furniture) {
+        List<HomePieceOfFurniture> allFurniture = new ArrayList<HomePieceOfFurniture>();
+        for (HomePieceOfFurniture piece : furniture) {
+            addAllFurniture(piece, allFurniture);
+        }
+        return allFurniture;
+    }
+
+    private static void addAllFurniture(HomePieceOfFurniture furniture, List<HomePieceOfFurniture> allFurniture) {
+        allFurniture.add(furniture);
+        if (furniture instanceof HomeFurnitureGroup) {
+            for (HomePieceOfFurniture piece : ((HomeFurnitureGroup) furniture).getFurniture()) {
+                addAllFurniture(piece, allFurniture);
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package io.github.totchi_lagawi.scratchomised_plugin;
+
+import java.util.ArrayList;
+
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+import com.eteks.sweethome3d.model.HomePieceOfFurniture;
+
+/**
+ * Modification de plusieurs propriétés de meubles demandée en une fois par
+ * Scratch (define_properties), annulable en une seule fois dans SweetHome3D.
+ * Doit être appliquée, annulée et refaite sur le thread de l'interface.
+ */
+public class FurniturePropertyEdit extends AbstractUndoableEdit {
+    private static final long serialVersionUID = 1L;
+
+    private static class Change {
+        final HomePieceOfFurniture furniture;
+        final PropertyAccessor accessor;
+        final Object newValue;
+        Object oldValue;
+        boolean applied = false;
+
+        Change(HomePieceOfFurniture furniture, PropertyAccessor accessor, Object newValue) {
+            this.furniture = furniture;
+            this.accessor = accessor;
+            this.newValue = newValue;
+        }
+    }
+
+    private String _presentationName;
+    private ArrayList<Change> _changes = new ArrayList<Change>();
+    private Logger _logger = Log.getLogger(FurniturePropertyEdit.class);
+
+    /**
+     * @param presentationName le nom affiché dans les menus Annuler et Refaire
+     */
+    public FurniturePropertyEdit(String presentationName) {
+        this._presentationName = presentationName;
+    }
+
+    /**
+     * Ajoute une modification, qui sera faite par apply()
+     */
+    public void addChange(HomePieceOfFurniture furniture, PropertyAccessor accessor, Object value) {
+        this._changes.add(new Change(furniture, accessor, value));
+    }
+
+    public int size() {
+        return this._changes.size();
+    }
+
+    /**
+     * Fait toutes les modifications, en mémorisant les anciennes valeurs.
+     * Une modification qui échoue n'empêche pas les suivantes.
+     *
+     * @return the pieces of furniture that were modified
+     */
+    public ArrayList<HomePieceOfFurniture> apply() {
+        ArrayList<HomePieceOfFurniture> modifiedFurniture = new ArrayList<HomePieceOfFurniture>();
+        for (Change change : this._changes) {
+            try {
+                if (change.accessor.isReadable()) {
+                    change.oldValue = change.accessor.get(change.furniture);
+                }
+                change.accessor.set(change.furniture, change.newValue);
+                change.applied = true;
+                modifiedFurniture.add(change.furniture);
+            } catch (Throwable ex) {
+                this._logger.warn("Cannot set property " + change.accessor.getName(), ex);
+            }
+        }
+        return modifiedFurniture;
+    }
+
+    /**
+     * Indique si au moins une modification a été faite et peut être annulée
+     */
+    public boolean isUndoable() {
+        for (Change change : this._changes) {
+            if (change.applied && change.accessor.isReadable()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void undo() throws CannotUndoException {
+        super.undo();
+        // Dans l'ordre inverse, pour qu'une propriété modifiée deux fois retrouve sa première valeur
+        for (int i = this._changes.size() - 1; i >= 0; i--) {
+            Change change = this._changes.get(i);
+            if (change.applied && change.accessor.isReadable()) {
+                try {
+                    change.accessor.set(change.furniture, change.oldValue);
+                } catch (Throwable ex) {
+                    this._logger.warn("Cannot undo property " + change.accessor.getName(), ex);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void redo() throws CannotRedoException {
+        super.redo();
+        for (Change change : this._changes) {
+            if (change.applied) {
+                try {
+                    change.accessor.set(change.furniture, change.newValue);
+                } catch (Throwable ex) {
+                    this._logger.warn("Cannot redo property " + change.accessor.getName(), ex);
+                }
+            }
+        }
+    }
+
+    @Override
+    public String getPresentationName() {
+        return this._presentationName;
+    }
+}
@@ -46,6 +46,7 @@ public class PluginActionExportDatas extends PluginAction implements PropertyCha
     // IDs fixes pour les assets (comme dans ScratchHome2.0)
     private static final String BACKDROP_ASSET_ID = "cd21514d0531fdffb22204e0ec5ed84a";
     private static final String OBSERVER_SPRITE_ASSET_ID = "bcf454acf82e4504149f7ffe07081dbc";
+    private static final double[] EXPORT_DURATION_BUCKETS = { 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30 };
 
     public PluginActionExportDatas(LanguageManager languageManager, Home home, HomeController homeController) {
         this._languageManager = languageManager;
@@ -173,7 +174,17 @@ public class PluginActionExportDatas extends PluginAction implements PropertyCha
         }
 
         // Créer le fichier SB3 (ZIP) avec plan 2D et observer sprite
-        this.createSB3WithPlanAndObserver(filePath);
+        PluginServerMetrics metrics = PluginServerMetrics.getInstance();
+        long start = System.nanoTime();
+        try {
+            this.createSB3WithPlanAndObserver(filePath);
+        } catch (Exception e) {
+            metrics.counter("scratchomised_exports_total", "Scratch projects exported", "result", "error").increment();
+            throw e;
+        }
+        metrics.histogram("scratchomised_export_duration_seconds", "Time spent writing an exported Scratch project",
+                EXPORT_DURATION_BUCKETS).observeNanos(System.nanoTime() - start);
+        metrics.counter("scratchomised_exports_total", "Scratch projects exported", "result", "success").increment();
         
         JOptionPane.showMessageDialog(null, 
             this._languageManager.getString("export.success") + "\n" + filePath,
@@ -6,6 +6,7 @@ import java.lang.Thread.UncaughtExceptionHandler;
 import java.util.function.Consumer;
 
 import javax.swing.JOptionPane;
+import javax.swing.undo.UndoableEditSupport;
 
 import com.eteks.sweethome3d.model.Home;
 import com.eteks.sweethome3d.plugin.PluginAction;
@@ -16,17 +17,18 @@ public class PluginActionManageServer extends PluginAction implements PropertyCh
     private LanguageManager _languageManager;
     private Home _home;
     private HomeController _homeController;
-    private int _port = 55125;
+    private UndoableEditSupport _undoableEditSupport;
     private PluginServer _server;
     private Thread _serverThread;
     private PluginServerDebugWindow _debugWindow;
     private PluginClickListener _clickListener;
     private Consumer<String> _clickMessageCallback;
 
-    public PluginActionManageServer(LanguageManager languageManager, Home home, HomeController homeController) {
+    public PluginActionManageServer(LanguageManager languageManager, Home home, HomeController homeController, UndoableEditSupport undoableEditSupport) {
         this._languageManager = languageManager;
         this._home = home;
         this._homeController = homeController;
+        this._undoableEditSupport = undoableEditSupport;
         // When instanciated, define the menu, name and enabled state of this action
         putPropertyValue(Property.NAME, this._languageManager.getString("menus.server.start"));
         putPropertyValue(Property.MENU, this._languageManager.getString("name"));
@@ -52,15 +54,18 @@ public class PluginActionManageServer extends PluginAction implements PropertyCh
             return;
         }
 
+        // Les réglages sont relus à chaque démarrage, port compris
+        PluginServerSettings settings = PluginServerSettings.load();
+
         // Créer la fenêtre de debug
         if (this._debugWindow == null) {
             this._debugWindow = new PluginServerDebugWindow(this._languageManager);
-            this._debugWindow.setServerStatus(false, this._port);
         }
+        this._debugWindow.setServerStatus(false, settings.port);
         this._debugWindow.setVisible(true);
 
         if (this._server == null) {
-            this._server = new PluginServer(this._port, this._languageManager, this._home, this._debugWindow, this._homeController);
+            this._server = new PluginServer(settings.port, this._languageManager, this._home, this._debugWindow, this._homeController, this._undoableEditSupport, settings);
         }
 
         if (this._serverThread == null) {
@@ -98,7 +103,8 @@ public class PluginActionManageServer extends PluginAction implements PropertyCh
      * Stop the server if needed, and clean things a bit.
      */
     public void stopServer() {
-        if (this._server != null && this._serverThread != null && this._server.isRunning()) {
+        // Même arrêté (démarrage raté par exemple), le serveur a des ressources à libérer
+        if (this._server != null) {
             this._server.stop();
         }
 
@@ -125,9 +131,12 @@ public class PluginActionManageServer extends PluginAction implements PropertyCh
             if (this._homeController != null) {
                 HomeComponent3D comp3D = (HomeComponent3D) this._homeController.getHomeController3D().getView();
                 if (comp3D != null && this._clickListener == null) {
-                    // Créer le callback qui utilise ClickMessageManager pour envoyer les messages
+                    // Le clic est envoyé aux sessions ouvertes du serveur en cours
                     this._clickMessageCallback = (objectId) -> {
-                        ClickMessageManager.getInstance().sendClickMessage(objectId);
+                        PluginServer server = this._server;
+                        if (server != null) {
+                            server.sendClickMessage(objectId);
+                        }
                     };
                     
                     // Créer et ajouter le listener
@@ -2,13 +2,11 @@ package io.github.totchi_lagawi.scratchomised_plugin;
 
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
-import java.util.HashMap;
 import java.util.function.Consumer;
 
 import com.eteks.sweethome3d.model.HomePieceOfFurniture;
 import com.eteks.sweethome3d.model.Selectable;
 import com.eteks.sweethome3d.swing.HomeComponent3D;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * Mouse Listener pour détecter les clics sur les objets dans la vue 3D
@@ -37,7 +35,7 @@ public class PluginClickListener implements MouseListener {
             HomePieceOfFurniture piece = (HomePieceOfFurniture) closestSelectable;
             
             // Vérifier si c'est un switch (nom ou catalogId contient "switch" ou "interrupteur")
-            if (isSwitch(piece)) {
+            if (FurnitureClassifier.getInstance().isSwitch(piece)) {
                 String objectId = piece.getId();
                 
                 if (this._debugWindow != null) {
@@ -47,33 +45,20 @@ public class PluginClickListener implements MouseListener {
                 
                 // Modifier le champ 'power' : alterner entre 0 et 1
                 try {
-                    // Utiliser la réflexion pour trouver et appeler setPower
-                    java.lang.reflect.Method setPowerMethod = null;
-                    try {
-                        setPowerMethod = piece.getClass().getMethod("setPower", Float.class);
-                    } catch (NoSuchMethodException ex) {
-                        // Essayer avec float primitif
-                        try {
-                            setPowerMethod = piece.getClass().getMethod("setPower", float.class);
-                        } catch (NoSuchMethodException ex2) {
-                            // Pas de méthode setPower
-                        }
-                    }
-                    
-                    if (setPowerMethod != null) {
+                    PropertyAccessor power = PropertyAccessorRegistry.getInstance().getAccessor(piece.getClass(), "power");
+                    if (power != null && power.isWritable() && power.isReadable()) {
                         // Obtenir la valeur actuelle de power
-                        java.lang.reflect.Method getPowerMethod = piece.getClass().getMethod("getPower");
-                        Float currentPower = (Float) getPowerMethod.invoke(piece);
+                        Float currentPower = (Float) power.get(piece);
                         
                         // Alterner entre 0 et 1
                         Float newPower = (currentPower == null || currentPower == 0.0f) ? 1.0f : 0.0f;
-                        setPowerMethod.invoke(piece, newPower);
+                        power.set(piece, newPower);
                         
                         if (this._debugWindow != null) {
                             this._debugWindow.addLog("Power changed to: " + newPower, PluginServerDebugWindow.LogType.INFO);
                         }
                     }
-                } catch (Exception ex) {
+                } catch (Throwable ex) {
                     if (this._debugWindow != null) {
                         this._debugWindow.addLog("Error changing power: " + ex.getMessage(), PluginServerDebugWindow.LogType.ERROR);
                     }
@@ -88,38 +73,6 @@ public class PluginClickListener implements MouseListener {
         }
     }
     
-    /**
-     * Vérifie si un objet est un switch (interrupteur)
-     */
-    @SuppressWarnings("unchecked")
-    private boolean isSwitch(HomePieceOfFurniture furniture) {
-        try {
-            ObjectMapper mapper = new ObjectMapper();
-            HashMap<String, Object> mappedObject = (HashMap<String, Object>) mapper.convertValue(furniture, HashMap.class);
-            
-            // Vérifier le catalogId (identifiant de référencement)
-            if (mappedObject.containsKey("catalogId") && mappedObject.get("catalogId") != null) {
-                String catalogId = mappedObject.get("catalogId").toString().toLowerCase();
-                if (catalogId.contains("switch") || catalogId.contains("interrupteur")) {
-                    return true;
-                }
-            }
-            
-            // Vérifier le nom de l'objet
-            if (mappedObject.containsKey("name") && mappedObject.get("name") != null) {
-                String objectName = mappedObject.get("name").toString().toLowerCase();
-                if (objectName.contains("switch") || objectName.contains("interrupteur")) {
-                    return true;
-                }
-            }
-        } catch (Exception ex) {
-            // En cas d'erreur, ne pas considérer comme switch
-            ex.printStackTrace();
-        }
-        
-        return false;
-    }
-    
     // Autres méthodes requises par MouseListener (non utilisées)
     @Override
     public void mousePressed(MouseEvent e) {
@@ -1,9 +1,13 @@
 package io.github.totchi_lagawi.scratchomised_plugin;
 
+import java.util.concurrent.Executor;
+
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
 
+import javax.swing.undo.UndoableEditSupport;
+
 import com.eteks.sweethome3d.model.Home;
 
 import com.eteks.sweethome3d.viewcontroller.HomeController;
@@ -15,14 +19,33 @@ public class PluginServer implements Runnable {
     private Server _server;
     private PluginServerDebugWindow _debugWindow;
     private HomeController _homeController;
+    private UndoableEditSupport _undoableEditSupport;
+    private PluginServerSettings _settings;
+    private PluginServerLogger _logger;
+    private PluginServerUpdateScheduler _updateScheduler;
+    private PluginServerHomeObserver _homeObserver;
+    private PluginServerSessionRegistry _sessionRegistry;
+    private FurnitureIndex _furnitureIndex;
 
-    public PluginServer(int port, LanguageManager languageManager, Home home, PluginServerDebugWindow debugWindow, HomeController homeController) {
+    public PluginServer(int port, LanguageManager languageManager, Home home, PluginServerDebugWindow debugWindow, HomeController homeController, UndoableEditSupport undoableEditSupport, PluginServerSettings settings) {
+        this(port, languageManager, home, debugWindow, homeController, undoableEditSupport, settings, null);
+    }
+
+    /**
+     * @param executor l'Executor utilisé par Jetty, ou null pour le pool de
+     *                 threads décrit par les réglages
+     */
+    public PluginServer(int port, LanguageManager languageManager, Home home, PluginServerDebugWindow debugWindow, HomeController homeController, UndoableEditSupport undoableEditSupport, PluginServerSettings settings, Executor executor) {
         this._languageManager = languageManager;
         this._home = home;
         this._port = port;
-        this._server = new Server(this._port);
+        // Le logger doit être installé avant que Jetty ne crée les siens
+        this._logger = PluginServerLogger.install(languageManager, settings);
+        this._server = new PluginServerFactory(settings).setExecutor(executor).createServer(this._port);
         this._debugWindow = debugWindow;
         this._homeController = homeController;
+        this._undoableEditSupport = undoableEditSupport;
+        this._settings = settings;
     }
 
     @Override
@@ -31,11 +54,31 @@ public class PluginServer implements Runnable {
         ServletContextHandler contextHandler = new ServletContextHandler(ServletContextHandler.SESSIONS);
         contextHandler.setContextPath("/");
         this._server.setHandler(contextHandler);
+        this._updateScheduler = new PluginServerUpdateScheduler(this._settings.flush_interval, this._debugWindow);
+        this._furnitureIndex = new FurnitureIndex(this._home);
+        // Projections relues à chaque démarrage, comme les réglages
+        FurnitureClassifier.getInstance().setProjections(PluginServerProjection.load(this._settings));
+        this._homeObserver = new PluginServerHomeObserver(this._home, this._updateScheduler, this._debugWindow,
+                this._settings);
+        this._sessionRegistry = new PluginServerSessionRegistry(this._updateScheduler, this._debugWindow);
+        this._updateScheduler.repeat(this._sessionRegistry::reportStatistics, 1000);
         ServletHolder servletHolder = new ServletHolder(
-                new PluginServerWebSocketServlet(this._languageManager, this._home, this._debugWindow, this._homeController));
+                new PluginServerWebSocketServlet(this._languageManager, this._home, this._debugWindow, this._homeController, this._undoableEditSupport, this._homeObserver, this._sessionRegistry, this._furnitureIndex, this._settings));
         contextHandler.addServlet(servletHolder, "/");
+        // Métriques au format Prometheus, sur le même port que le WebSocket
+        contextHandler.addServlet(new ServletHolder(new PluginServerMetricsServlet()), "/metrics");
+        PluginServerMetrics metrics = PluginServerMetrics.getInstance();
+        PluginServerSessionRegistry sessionRegistry = this._sessionRegistry;
+        PluginServerHomeObserver homeObserver = this._homeObserver;
+        metrics.gauge("scratchomised_sessions", "Open WebSocket sessions", sessionRegistry::getSessionCount);
+        metrics.gauge("scratchomised_ready_sessions", "Sessions receiving the changes of the home",
+                homeObserver::getSessionCount);
+        metrics.gauge("scratchomised_queued_messages", "Messages waiting to be sent, all sessions included",
+                sessionRegistry::getQueuedFrames);
+        boolean started = false;
         try {
             this._server.start();
+            started = true;
             if (this._debugWindow != null) {
                 this._debugWindow.setServerStatus(true, this._port);
                 this._debugWindow.addLog("Server started on port " + this._port, PluginServerDebugWindow.LogType.INFO);
@@ -46,24 +89,66 @@ public class PluginServer implements Runnable {
             if (this._debugWindow != null) {
                 this._debugWindow.addLog("Error starting server: " + ex.getMessage(), PluginServerDebugWindow.LogType.ERROR);
             }
+        } finally {
+            // Un démarrage raté ne doit laisser ni listener sur le plan, ni thread
+            if (!started) {
+                this.stop();
+            }
         }
     }
 
-    public void stop() {
-        if (this.isRunning()) {
-            try {
-                this._server.stop();
-                if (this._debugWindow != null) {
-                    this._debugWindow.setServerStatus(false, this._port);
-                    this._debugWindow.addLog("Server stopped", PluginServerDebugWindow.LogType.INFO);
-                }
-            } catch (Exception ex) {
-                System.err.println(this._languageManager.getString("log_prefix") + "Couldn't stop the server :");
-                ex.printStackTrace();
-                if (this._debugWindow != null) {
-                    this._debugWindow.addLog("Error stopping server: " + ex.getMessage(), PluginServerDebugWindow.LogType.ERROR);
-                }
+    /**
+     * Arrête le serveur et libère tout ce que run() a créé, même si le serveur
+     * n'a pas pu démarrer
+     */
+    public synchronized void stop() {
+        boolean wasRunning = this.isRunning();
+        try {
+            this._server.stop();
+        } catch (Exception ex) {
+            System.err.println(this._languageManager.getString("log_prefix") + "Couldn't stop the server :");
+            ex.printStackTrace();
+            if (this._debugWindow != null) {
+                this._debugWindow.addLog("Error stopping server: " + ex.getMessage(), PluginServerDebugWindow.LogType.ERROR);
             }
+        } finally {
+            if (this._homeObserver != null) {
+                this._homeObserver.dispose();
+                this._homeObserver = null;
+            }
+            if (this._sessionRegistry != null) {
+                this._sessionRegistry.clear();
+                this._sessionRegistry = null;
+            }
+            PluginServerMetrics.getInstance().removeGauge("scratchomised_sessions");
+            PluginServerMetrics.getInstance().removeGauge("scratchomised_ready_sessions");
+            PluginServerMetrics.getInstance().removeGauge("scratchomised_queued_messages");
+            if (this._updateScheduler != null) {
+                this._updateScheduler.shutdown();
+                this._updateScheduler = null;
+            }
+            if (this._furnitureIndex != null) {
+                this._furnitureIndex.dispose();
+                this._furnitureIndex = null;
+            }
+            if (this._logger != null) {
+                this._logger.close();
+                this._logger = null;
+            }
+        }
+        if (wasRunning && this._debugWindow != null) {
+            this._debugWindow.setServerStatus(false, this._port);
+            this._debugWindow.addLog("Server stopped", PluginServerDebugWindow.LogType.INFO);
+        }
+    }
+
+    /**
+     * Envoie un clic sur un objet à toutes les sessions ouvertes
+     */
+    public void sendClickMessage(String objectId) {
+        PluginServerSessionRegistry sessionRegistry = this._sessionRegistry;
+        if (sessionRegistry != null) {
+            sessionRegistry.sendClickMessage(objectId);
         }
     }
 
@@ -0,0 +1,143 @@
+package io.github.totchi_lagawi.scratchomised_plugin;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.swing.SwingUtilities;
+
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+import com.eteks.sweethome3d.model.HomePieceOfFurniture;
+
+/**
+ * Regroupe les define_property d'une session : pendant l'intervalle de
+ * regroupement, seule la dernière valeur reçue pour chaque couple (objet,
+ * propriété) est gardée. Les valeurs restantes sont ensuite appliquées en un
+ * seul lot sur le thread de l'interface, et envoyées aux clients dans un seul
+ * message.
+ *
+ * Une boucle Scratch qui modifie la même propriété à chaque image ne provoque
+ * ainsi qu'une modification du plan par intervalle.
+ */
+public class PluginServerCommandCoalescer {
+    private static final PluginServerMetrics.Counter RECEIVED_METRIC = PluginServerMetrics.getInstance().counter(
+            "scratchomised_commands_received_total", "define_property commands received from clients");
+    private static final PluginServerMetrics.Counter MERGED_METRIC = PluginServerMetrics.getInstance().counter(
+            "scratchomised_commands_merged_total", "define_property commands replaced by a newer one before being applied");
+
+    private PluginServerHomeObserver _homeObserver;
+    private PluginServerDebugWindow _debugWindow;
+    private Logger _logger = Log.getLogger(PluginServerCommandCoalescer.class);
+    // Dernière valeur reçue pour chaque couple (objet, propriété), dans l'ordre de réception
+    private LinkedHashMap<Write, Object> _pendingWrites = new LinkedHashMap<Write, Object>();
+    private boolean _flushScheduled = false;
+    private AtomicLong _receivedCommands = new AtomicLong();
+    private AtomicLong _mergedCommands = new AtomicLong();
+
+    /**
+     * Propriété d'un objet à modifier
+     */
+    private static final class Write {
+        final HomePieceOfFurniture furniture;
+        final PropertyAccessor accessor;
+
+        Write(HomePieceOfFurniture furniture, PropertyAccessor accessor) {
+            this.furniture = furniture;
+            this.accessor = accessor;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Write && ((Write) other).furniture == this.furniture
+                    && ((Write) other).accessor == this.accessor;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(this.furniture) * 31 + System.identityHashCode(this.accessor);
+        }
+    }
+
+    public PluginServerCommandCoalescer(PluginServerHomeObserver homeObserver, PluginServerDebugWindow debugWindow) {
+        this._homeObserver = homeObserver;
+        this._debugWindow = debugWindow;
+    }
+
+    /**
+     * Ajoute une modification, qui remplace celle de la même propriété du même
+     * objet si elle n'a pas encore été appliquée
+     */
+    public void offer(HomePieceOfFurniture furniture, PropertyAccessor accessor, Object value) {
+        this._receivedCommands.incrementAndGet();
+        RECEIVED_METRIC.increment();
+        synchronized (this) {
+            // Retirer puis remettre : la modification prend la place de la plus récente
+            if (this._pendingWrites.remove(new Write(furniture, accessor)) != null) {
+                this._mergedCommands.incrementAndGet();
+                MERGED_METRIC.increment();
+            }
+            this._pendingWrites.put(new Write(furniture, accessor), value);
+            if (this._flushScheduled) {
+                return;
+            }
+            this._flushScheduled = true;
+        }
+        this._homeObserver.schedule(this::flush);
+    }
+
+    /**
+     * Applique tout de suite les modifications en attente, par exemple avant une
+     * commande qui doit les suivre
+     */
+    public synchronized void flush() {
+        this._flushScheduled = false;
+        if (this._pendingWrites.isEmpty()) {
+            return;
+        }
+        ArrayList<Map.Entry<Write, Object>> writes = new ArrayList<Map.Entry<Write, Object>>(
+                this._pendingWrites.entrySet());
+        this._pendingWrites = new LinkedHashMap<Write, Object>();
+
+        // Posté sous le verrou : un define_properties qui suit flush() ne peut pas
+        // passer avant un lot déjà retiré de la file par un autre thread
+        SwingUtilities.invokeLater(() -> {
+            this._homeObserver.runBatch(() -> {
+                int applied = 0;
+                for (Map.Entry<Write, Object> write : writes) {
+                    Write key = write.getKey();
+                    try {
+                        key.accessor.set(key.furniture, write.getValue());
+                        // N'envoyer que les propriétés modifiées, avec les autres modifications en attente
+                        this._homeObserver.markDirty(key.furniture);
+                        applied++;
+                    } catch (Throwable ex) {
+                        this._logger.warn("Error setting property " + key.accessor.getName(), ex);
+                        if (this._debugWindow != null) {
+                            this._debugWindow.addLog("Error setting property " + key.accessor.getName() + ": "
+                                    + ex.getMessage(), PluginServerDebugWindow.LogType.ERROR);
+                        }
+                    }
+                }
+                if (this._debugWindow != null) {
+                    this._debugWindow.addLog("Successfully set " + applied + " of " + writes.size() + " properties",
+                            PluginServerDebugWindow.LogType.INFO);
+                }
+            });
+        });
+    }
+
+    public long getReceivedCommands() {
+        return this._receivedCommands.get();
+    }
+
+    /**
+     * Renvoie le nombre de commandes remplacées par une plus récente avant
+     * d'avoir été appliquées
+     */
+    public long getMergedCommands() {
+        return this._mergedCommands.get();
+    }
+}
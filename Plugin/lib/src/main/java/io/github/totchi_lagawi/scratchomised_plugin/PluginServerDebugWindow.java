@@ -1,24 +1,107 @@
 package io.github.totchi_lagawi.scratchomised_plugin;
 
 import javax.swing.*;
-import javax.swing.text.DefaultCaret;
 import java.awt.*;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.EnumSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class PluginServerDebugWindow extends JFrame {
+    // Nombre de lignes gardées, et de lignes en attente d'affichage pendant une pause
+    private static final int LOG_CAPACITY = 5000;
+    // Intervalle entre deux ajouts de lignes à la liste (en millisecondes)
+    private static final int LOG_REFRESH_INTERVAL = 250;
+
     private JLabel _statusLabel;
-    private JTextArea _logArea;
+    private JLabel _statisticsLabel;
+    private JLabel _sessionsLabel;
+    private JList<LogEntry> _logList;
+    private LogListModel _logModel = new LogListModel();
     private LanguageManager _languageManager;
     private SimpleDateFormat _dateFormat;
 
+    // Lignes ajoutées depuis n'importe quel thread, affichées par lots sur le thread de l'interface
+    private ConcurrentLinkedQueue<LogEntry> _pendingLogs = new ConcurrentLinkedQueue<>();
+    private AtomicInteger _pendingCount = new AtomicInteger();
+    // Toutes les lignes gardées, et celles qui passent les filtres (thread de l'interface uniquement)
+    private PluginServerLogBuffer<LogEntry> _logEntries = new PluginServerLogBuffer<>(LOG_CAPACITY);
+    private PluginServerLogBuffer<LogEntry> _visibleEntries = new PluginServerLogBuffer<>(LOG_CAPACITY);
+    private EnumSet<LogType> _visibleTypes = EnumSet.allOf(LogType.class);
+    private PluginServerLogLevel _minimumLevel = PluginServerLogLevel.ALL;
+    private boolean _paused = false;
+    private Timer _refreshTimer;
+
+    /**
+     * Ligne de log. Elle n'est mise en forme que si elle est affichée.
+     */
+    private static class LogEntry {
+        final long time;
+        final LogType type;
+        final String message;
+
+        LogEntry(long time, LogType type, String message) {
+            this.time = time;
+            this.type = type;
+            this.message = message;
+        }
+    }
+
+    /**
+     * Liste des lignes visibles, lue directement dans le tampon circulaire
+     */
+    private class LogListModel extends AbstractListModel<LogEntry> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public int getSize() {
+            return _visibleEntries.size();
+        }
+
+        @Override
+        public LogEntry getElementAt(int index) {
+            return _visibleEntries.get(index);
+        }
+
+        void fireAdded(int count) {
+            int size = this.getSize();
+            this.fireIntervalAdded(this, size - count, size - 1);
+        }
+
+        void fireChanged(int previousSize) {
+            this.fireContentsChanged(this, 0, Math.max(previousSize, this.getSize()) - 1);
+        }
+    }
+
     public PluginServerDebugWindow(LanguageManager languageManager) {
         this._languageManager = languageManager;
         this._dateFormat = new SimpleDateFormat("HH:mm:ss.SSS");
         
         initializeUI();
+
+        // Les lignes sont ajoutées à la liste par lots, pour que le coût des logs reste
+        // le même quel que soit leur nombre. Le timer ne tourne que quand la fenêtre
+        // est affichée : cachée, les lignes attendent dans la file bornée.
+        this._refreshTimer = new Timer(LOG_REFRESH_INTERVAL, e -> flushPendingLogs());
+    }
+
+    @Override
+    public void setVisible(boolean visible) {
+        super.setVisible(visible);
+        if (visible) {
+            this._refreshTimer.start();
+        } else {
+            this._refreshTimer.stop();
+        }
+    }
+
+    @Override
+    public void dispose() {
+        this._refreshTimer.stop();
+        super.dispose();
     }
 
     private void initializeUI() {
@@ -47,25 +130,63 @@ public class PluginServerDebugWindow extends JFrame {
         _statusLabel = new JLabel(this._languageManager.getString("debug_window.status_stopped"));
         _statusLabel.setFont(_statusLabel.getFont().deriveFont(Font.BOLD));
         statusPanel.add(_statusLabel);
-        mainPanel.add(statusPanel, BorderLayout.NORTH);
-
-        // Zone de logs
-        _logArea = new JTextArea();
-        _logArea.setEditable(false);
-        _logArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
-        _logArea.setBackground(Color.BLACK);
-        _logArea.setForeground(Color.GREEN);
-        
-        // Auto-scroll
-        DefaultCaret caret = (DefaultCaret) _logArea.getCaret();
-        caret.setUpdatePolicy(DefaultCaret.ALWAYS_UPDATE);
+        _statisticsLabel = new JLabel();
+        statusPanel.add(Box.createHorizontalStrut(20));
+        statusPanel.add(_statisticsLabel);
+
+        // Statistiques d'envoi de chaque session
+        JPanel sessionsPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        _sessionsLabel = new JLabel();
+        sessionsPanel.add(_sessionsLabel);
+
+        JPanel headerPanel = new JPanel();
+        headerPanel.setLayout(new BoxLayout(headerPanel, BoxLayout.Y_AXIS));
+        headerPanel.add(statusPanel);
+        headerPanel.add(sessionsPanel);
+        mainPanel.add(headerPanel, BorderLayout.NORTH);
+
+        // Zone de logs : seules les lignes visibles à l'écran sont mises en forme
+        _logList = new JList<LogEntry>(_logModel);
+        _logList.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        _logList.setBackground(Color.BLACK);
+        _logList.setForeground(Color.GREEN);
+        _logList.setCellRenderer(new LogCellRenderer());
+        // Une taille de ligne fixe évite de mesurer chaque ligne de la liste
+        _logList.setPrototypeCellValue(new LogEntry(0, LogType.CONNECTION,
+                "0000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000"));
         
-        JScrollPane scrollPane = new JScrollPane(_logArea);
+        JScrollPane scrollPane = new JScrollPane(_logList);
         scrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_ALWAYS);
         mainPanel.add(scrollPane, BorderLayout.CENTER);
 
-        // Bouton pour effacer les logs
+        // Filtres, pause et bouton pour effacer les logs
         JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttonPanel.add(new JLabel(this._languageManager.getString("debug_window.level") + ": "));
+        JComboBox<PluginServerLogLevel> levelComboBox = new JComboBox<PluginServerLogLevel>(PluginServerLogLevel.values());
+        levelComboBox.setSelectedItem(_minimumLevel);
+        levelComboBox.addActionListener(e -> {
+            _minimumLevel = (PluginServerLogLevel) levelComboBox.getSelectedItem();
+            applyFilters();
+        });
+        buttonPanel.add(levelComboBox);
+        for (LogType type : LogType.values()) {
+            JCheckBox typeCheckBox = new JCheckBox(type.getPrefix(), true);
+            typeCheckBox.addActionListener(e -> {
+                if (typeCheckBox.isSelected()) {
+                    _visibleTypes.add(type);
+                } else {
+                    _visibleTypes.remove(type);
+                }
+                applyFilters();
+            });
+            buttonPanel.add(typeCheckBox);
+        }
+        JToggleButton pauseButton = new JToggleButton(this._languageManager.getString("debug_window.pause"));
+        pauseButton.addActionListener(e -> {
+            _paused = pauseButton.isSelected();
+            flushPendingLogs();
+        });
+        buttonPanel.add(pauseButton);
         JButton clearButton = new JButton(this._languageManager.getString("debug_window.clear"));
         clearButton.addActionListener(e -> clearLogs());
         buttonPanel.add(clearButton);
@@ -86,58 +207,153 @@ public class PluginServerDebugWindow extends JFrame {
         });
     }
 
-    public void addLog(String message, LogType type) {
+    /**
+     * Affiche les statistiques d'envoi de chaque session (une ligne par session)
+     */
+    public void setSessionStatistics(java.util.List<String> statistics) {
+        StringBuilder text = new StringBuilder("<html>");
+        for (String line : statistics) {
+            text.append(line.replace("&", "&amp;").replace("<", "&lt;")).append("<br>");
+        }
+        text.append("</html>");
         SwingUtilities.invokeLater(() -> {
-            String timestamp = _dateFormat.format(new Date());
-            String prefix;
-            
-            switch (type) {
-                case RECEIVED:
-                    prefix = "[← RECU]";
-                    break;
-                case SENT:
-                    prefix = "[→ ENVOYÉ]";
-                    break;
-                case INFO:
-                    prefix = "[INFO]";
-                    break;
-                case ERROR:
-                    prefix = "[ERREUR]";
-                    break;
-                case CONNECTION:
-                    prefix = "[CONNEXION]";
-                    break;
-                default:
-                    prefix = "[LOG]";
-            }
-            
-            _logArea.append("[" + timestamp + "] " + prefix + " " + message + "\n");
-            
-            // Limiter le nombre de lignes pour éviter les problèmes de mémoire
-            String text = _logArea.getText();
-            String[] lines = text.split("\n");
-            if (lines.length > 1000) {
-                StringBuilder newText = new StringBuilder();
-                for (int i = lines.length - 1000; i < lines.length; i++) {
-                    newText.append(lines[i]).append("\n");
-                }
-                _logArea.setText(newText.toString());
-            }
+            _sessionsLabel.setText(statistics.isEmpty() ? "" : text.toString());
         });
     }
 
+    /**
+     * Affiche les statistiques d'envoi (débit, latence)
+     */
+    public void setStatistics(String statistics) {
+        SwingUtilities.invokeLater(() -> {
+            _statisticsLabel.setText(statistics);
+        });
+    }
+
+    /**
+     * Ajoute une ligne de log. Peut être appelé depuis n'importe quel thread : la
+     * ligne est affichée au prochain rafraîchissement de la liste.
+     */
+    public void addLog(String message, LogType type) {
+        this._pendingLogs.offer(new LogEntry(System.currentTimeMillis(), type, message));
+        // Pendant une pause, seules les lignes les plus récentes sont gardées
+        if (this._pendingCount.incrementAndGet() > LOG_CAPACITY && this._pendingLogs.poll() != null) {
+            this._pendingCount.decrementAndGet();
+        }
+    }
+
     public void clearLogs() {
         SwingUtilities.invokeLater(() -> {
-            _logArea.setText("");
+            int previousSize = _visibleEntries.size();
+            _logEntries.clear();
+            _visibleEntries.clear();
+            _logList.clearSelection();
+            if (previousSize > 0) {
+                _logModel.fireChanged(previousSize);
+            }
         });
     }
 
+    /**
+     * Ajoute à la liste les lignes en attente (thread de l'interface)
+     */
+    private void flushPendingLogs() {
+        if (_paused) {
+            return;
+        }
+        int previousSize = _visibleEntries.size();
+        int added = 0;
+        boolean removed = false;
+        LogEntry entry;
+        while ((entry = _pendingLogs.poll()) != null) {
+            _pendingCount.decrementAndGet();
+            _logEntries.add(entry);
+            if (isVisible(entry)) {
+                removed |= _visibleEntries.add(entry);
+                added++;
+            }
+        }
+        if (added == 0) {
+            return;
+        }
+        if (removed) {
+            // Les lignes les plus anciennes ont été remplacées : les index ont tous changé
+            _logList.clearSelection();
+            _logModel.fireChanged(previousSize);
+        } else {
+            _logModel.fireAdded(added);
+        }
+        _logList.ensureIndexIsVisible(_visibleEntries.size() - 1);
+    }
+
+    private boolean isVisible(LogEntry entry) {
+        return _visibleTypes.contains(entry.type) && _minimumLevel.compareTo(entry.type.getLevel()) <= 0;
+    }
+
+    /**
+     * Recalcule les lignes visibles après un changement de filtre
+     */
+    private void applyFilters() {
+        int previousSize = _visibleEntries.size();
+        _visibleEntries.clear();
+        for (int i = 0; i < _logEntries.size(); i++) {
+            LogEntry entry = _logEntries.get(i);
+            if (isVisible(entry)) {
+                _visibleEntries.add(entry);
+            }
+        }
+        _logList.clearSelection();
+        if (previousSize > 0 || _visibleEntries.size() > 0) {
+            _logModel.fireChanged(previousSize);
+        }
+        if (_visibleEntries.size() > 0) {
+            _logList.ensureIndexIsVisible(_visibleEntries.size() - 1);
+        }
+    }
+
+    /**
+     * Met en forme les lignes de log au moment où elles sont affichées
+     */
+    private class LogCellRenderer extends DefaultListCellRenderer {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected,
+                boolean cellHasFocus) {
+            LogEntry entry = (LogEntry) value;
+            String text = "[" + _dateFormat.format(new Date(entry.time)) + "] " + entry.type.getPrefix() + " "
+                    + entry.message;
+            super.getListCellRendererComponent(list, text, index, isSelected, cellHasFocus);
+            if (!isSelected) {
+                setForeground(entry.type == LogType.ERROR ? Color.RED : list.getForeground());
+            }
+            setToolTipText(entry.message.length() > 80 ? text : null);
+            return this;
+        }
+    }
+
     public enum LogType {
-        RECEIVED,
-        SENT,
-        INFO,
-        ERROR,
-        CONNECTION
+        RECEIVED("[← RECU]", PluginServerLogLevel.DEBUG),
+        SENT("[→ ENVOYÉ]", PluginServerLogLevel.DEBUG),
+        INFO("[INFO]", PluginServerLogLevel.INFO),
+        ERROR("[ERREUR]", PluginServerLogLevel.WARN),
+        CONNECTION("[CONNEXION]", PluginServerLogLevel.INFO);
+
+        private String _prefix;
+        // Niveau de la ligne, pour le filtre par niveau : les messages échangés sont les plus nombreux
+        private PluginServerLogLevel _level;
+
+        LogType(String prefix, PluginServerLogLevel level) {
+            this._prefix = prefix;
+            this._level = level;
+        }
+
+        public String getPrefix() {
+            return this._prefix;
+        }
+
+        public PluginServerLogLevel getLevel() {
+            return this._level;
+        }
     }
 }
-
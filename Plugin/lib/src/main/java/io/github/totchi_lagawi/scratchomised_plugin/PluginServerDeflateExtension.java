@@ -0,0 +1,78 @@
+package io.github.totchi_lagawi.scratchomised_plugin;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.websocket.api.BatchMode;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.eclipse.jetty.websocket.api.extensions.Frame;
+import org.eclipse.jetty.websocket.common.extensions.compress.PerMessageDeflateExtension;
+
+/**
+ * Extension permessage-deflate qui ne compresse pas les petits messages (clics,
+ * réponses), et qui compte les octets avant et après compression pour la
+ * fenêtre de debug.
+ *
+ * Jetty crée une instance par connexion, sans paramètre : le seuil est donc
+ * commun à tout le serveur.
+ */
+public class PluginServerDeflateExtension extends PerMessageDeflateExtension {
+    private static volatile int _threshold = 256;
+
+    private AtomicLong _uncompressedBytes = new AtomicLong();
+    private AtomicLong _wireBytes = new AtomicLong();
+    private AtomicLong _skippedFrames = new AtomicLong();
+
+    /**
+     * Définit la taille (en octets) en dessous de laquelle un message est envoyé
+     * sans compression
+     */
+    public static void setThreshold(int threshold) {
+        _threshold = Math.max(0, threshold);
+    }
+
+    @Override
+    public void outgoingFrame(Frame frame, WriteCallback callback, BatchMode batchMode) {
+        if (frame.getType().isData()) {
+            this._uncompressedBytes.addAndGet(frame.getPayloadLength());
+            // Un message entier et court n'est pas compressé : le bit RSV1 reste
+            // à 0, ce que permet permessage-deflate. Les files d'envoi n'envoient
+            // qu'un message à la fois, il ne peut donc pas doubler un message
+            // en cours de compression.
+            if (frame.isFin() && !frame.getType().isContinuation() && frame.getPayloadLength() < _threshold) {
+                this._skippedFrames.incrementAndGet();
+                this.nextOutgoingFrame(frame, callback, batchMode);
+                return;
+            }
+        }
+        super.outgoingFrame(frame, callback, batchMode);
+    }
+
+    @Override
+    protected void nextOutgoingFrame(Frame frame, WriteCallback callback, BatchMode batchMode) {
+        if (frame.getType().isData()) {
+            this._wireBytes.addAndGet(frame.getPayloadLength());
+        }
+        super.nextOutgoingFrame(frame, callback, batchMode);
+    }
+
+    /**
+     * Renvoie le nombre d'octets des messages avant compression
+     */
+    public long getUncompressedBytes() {
+        return this._uncompressedBytes.get();
+    }
+
+    /**
+     * Renvoie le nombre d'octets des messages réellement envoyés
+     */
+    public long getWireBytes() {
+        return this._wireBytes.get();
+    }
+
+    /**
+     * Renvoie le nombre de messages envoyés sans compression car trop petits
+     */
+    public long getSkippedFrames() {
+        return this._skippedFrames.get();
+    }
+}
@@ -0,0 +1,65 @@
+package io.github.totchi_lagawi.scratchomised_plugin;
+
+import java.util.concurrent.Executor;
+
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+/**
+ * Crée le serveur Jetty à partir des réglages : taille du pool de threads,
+ * nombre d'acceptors et de selectors, délai d'inactivité, adresse et port
+ * d'écoute. Les valeurs par défaut conviennent à un seul développeur ; une
+ * classe entière demande plus de threads et de selectors.
+ */
+public class PluginServerFactory {
+    private PluginServerSettings _settings;
+    private Executor _executor;
+
+    public PluginServerFactory(PluginServerSettings settings) {
+        this._settings = settings;
+    }
+
+    /**
+     * Remplace le pool de threads créé d'après les réglages. Un ThreadPool de
+     * Jetty est utilisé par tout le serveur ; tout autre Executor n'est utilisé
+     * que par le connecteur (acceptors, selectors et traitement des messages).
+     *
+     * @param executor l'Executor à utiliser, ou null pour celui des réglages
+     */
+    public PluginServerFactory setExecutor(Executor executor) {
+        this._executor = executor;
+        return this;
+    }
+
+    /**
+     * Crée le serveur, sans le démarrer
+     *
+     * @param port le port d'écoute, qui remplace celui des réglages
+     */
+    public Server createServer(int port) {
+        Server server = new Server(this._executor instanceof ThreadPool ? (ThreadPool) this._executor
+                : this.createThreadPool());
+        // -1 : nombre choisi par Jetty selon le nombre de processeurs
+        ServerConnector connector = new ServerConnector(server,
+                this._executor instanceof ThreadPool ? null : this._executor, null, null,
+                this._settings.acceptors, this._settings.selectors, new HttpConnectionFactory());
+        connector.setPort(port);
+        if (this._settings.bind_address != null && !this._settings.bind_address.isEmpty()) {
+            connector.setHost(this._settings.bind_address);
+        }
+        // Ne concerne que les requêtes HTTP : les WebSockets ont leur propre délai
+        connector.setIdleTimeout(this._settings.idle_timeout);
+        server.addConnector(connector);
+        return server;
+    }
+
+    private QueuedThreadPool createThreadPool() {
+        int maxThreads = Math.max(1, this._settings.max_threads);
+        QueuedThreadPool threadPool = new QueuedThreadPool(maxThreads, Math.min(Math.max(1, this._settings.min_threads), maxThreads));
+        threadPool.setName("Scratchomised - Jetty");
+        return threadPool;
+    }
+}
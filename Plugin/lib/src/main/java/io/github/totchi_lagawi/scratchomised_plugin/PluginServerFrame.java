@@ -0,0 +1,127 @@
+package io.github.totchi_lagawi.scratchomised_plugin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORGenerator;
+import com.fasterxml.jackson.jr.ob.JSON;
+
+/**
+ * Message à envoyer à un ou plusieurs clients. Il est encodé au plus une fois
+ * par format, la première fois qu'une session utilisant ce format l'envoie.
+ *
+ * Les messages fréquents (modifications, instantanés) sont écrits directement
+ * dans un JsonGenerator par un ArgumentsWriter, sans passer par des maps ; les
+ * autres sont des ScratchomisedRequest encodées par jackson-jr.
+ */
+public class PluginServerFrame {
+    private static final JSON JSON_ENCODER = new JSON();
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final ObjectMapper CBOR_MAPPER = new ObjectMapper(
+            CBORFactory.builder().enable(CBORGenerator.Feature.STRINGREF).build());
+    // Tampon d'encodage réutilisé par chaque thread
+    private static final ThreadLocal<ByteArrayOutputStream> BUFFER = ThreadLocal
+            .withInitial(() -> new ByteArrayOutputStream(8192));
+    private static final PluginServerMetrics.Histogram JSON_ENCODE_TIME = encodeTimeHistogram(PluginServerWireFormat.JSON);
+    private static final PluginServerMetrics.Histogram CBOR_ENCODE_TIME = encodeTimeHistogram(PluginServerWireFormat.CBOR);
+
+    /**
+     * Écrit les arguments d'un message (un objet JSON) dans un générateur
+     */
+    @FunctionalInterface
+    public interface ArgumentsWriter {
+        void write(JsonGenerator generator) throws IOException;
+    }
+
+    private String _action;
+    private ScratchomisedRequest _request;
+    private ArgumentsWriter _argumentsWriter;
+    private String _text;
+    private byte[] _binary;
+
+    public PluginServerFrame(ScratchomisedRequest request) {
+        this._action = request.action;
+        this._request = request;
+    }
+
+    /**
+     * Crée un message dont les arguments sont écrits au moment de l'encodage.
+     * Les données utilisées par l'ArgumentsWriter ne doivent plus être modifiées.
+     */
+    public PluginServerFrame(String action, ArgumentsWriter argumentsWriter) {
+        this._action = action;
+        this._argumentsWriter = argumentsWriter;
+    }
+
+    private static PluginServerMetrics.Histogram encodeTimeHistogram(PluginServerWireFormat format) {
+        return PluginServerMetrics.getInstance().histogram("scratchomised_frame_encode_seconds",
+                "Time spent encoding an outbound message", PluginServerMetrics.LATENCY_BUCKETS,
+                "format", format.name().toLowerCase());
+    }
+
+    public String getAction() {
+        return this._action;
+    }
+
+    /**
+     * Renvoie le message encodé en JSON
+     */
+    public synchronized String getText() throws IOException {
+        if (this._text == null) {
+            long start = System.nanoTime();
+            if (this._argumentsWriter != null) {
+                ByteArrayOutputStream buffer = BUFFER.get();
+                buffer.reset();
+                try (JsonGenerator generator = JSON_FACTORY.createGenerator(buffer)) {
+                    this.write(generator);
+                }
+                this._text = new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+            } else {
+                this._text = JSON_ENCODER.asString(this._request);
+            }
+            JSON_ENCODE_TIME.observeNanos(System.nanoTime() - start);
+        }
+        return this._text;
+    }
+
+    /**
+     * Renvoie le message encodé en CBOR
+     */
+    public synchronized byte[] getBinary() throws IOException {
+        if (this._binary == null) {
+            long start = System.nanoTime();
+            if (this._argumentsWriter != null) {
+                ByteArrayOutputStream buffer = BUFFER.get();
+                buffer.reset();
+                try (JsonGenerator generator = CBOR_MAPPER.getFactory().createGenerator(buffer)) {
+                    this.write(generator);
+                }
+                this._binary = buffer.toByteArray();
+            } else {
+                this._binary = CBOR_MAPPER.writeValueAsBytes(this._request);
+            }
+            CBOR_ENCODE_TIME.observeNanos(System.nanoTime() - start);
+        }
+        return this._binary;
+    }
+
+    private void write(JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("action", this._action);
+        generator.writeFieldName("args");
+        this._argumentsWriter.write(generator);
+        generator.writeEndObject();
+    }
+
+    /**
+     * Décode un message binaire reçu d'un client
+     */
+    public static ScratchomisedRequest decode(byte[] payload, int offset, int length) throws IOException {
+        return CBOR_MAPPER.readValue(payload, offset, length, ScratchomisedRequest.class);
+    }
+}
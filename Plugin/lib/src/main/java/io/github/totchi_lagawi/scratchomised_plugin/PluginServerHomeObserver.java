@@ -0,0 +1,686 @@
+package io.github.totchi_lagawi.scratchomised_plugin;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.SwingUtilities;
+
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+import com.eteks.sweethome3d.model.CollectionEvent;
+import com.eteks.sweethome3d.model.CollectionEvent.Type;
+import com.eteks.sweethome3d.model.CollectionListener;
+import com.eteks.sweethome3d.model.Home;
+import com.eteks.sweethome3d.model.HomePieceOfFurniture;
+
+/**
+ * Observateur unique du plan pour un serveur : il écoute les meubles une seule
+ * fois, encode chaque modification une seule fois, et envoie le même message à
+ * toutes les sessions prêtes.
+ *
+ * Les écouteurs sont appelés par le thread qui modifie le plan (en général
+ * celui de l'interface) : ils ne font qu'ajouter un enregistrement à une file.
+ * Tout le reste (classification, encodage, envoi) est fait par le thread du
+ * planificateur, seul à modifier l'état de l'observateur.
+ *
+ * Chaque lot de modifications envoyé reçoit un numéro de séquence, et les
+ * derniers lots sont gardés : un client qui se reconnecte (resume) ne reçoit
+ * que les lots qu'il a manqués, ou un instantané s'ils ne sont plus gardés.
+ *
+ * Une version du contenu (la somme des empreintes des objets, mise à jour à
+ * chaque modification, suivie d'une clé de l'abonnement et des projections) est
+ * aussi envoyée : un client qui a gardé les objets d'une version, même après
+ * avoir rechargé la page, n'en reçoit pas de nouvelle copie si rien n'a changé.
+ * Un client dont l'abonnement ou les projections diffèrent reçoit un instantané,
+ * ses objets ne correspondant pas à ce qu'il recevrait maintenant.
+ *
+ * Un instantané de plus de snapshot_chunk_size objets est envoyé en plusieurs
+ * messages update_objects_chunk, que le client peut utiliser dès leur arrivée.
+ */
+public class PluginServerHomeObserver implements CollectionListener<HomePieceOfFurniture>, PropertyChangeListener {
+    private static final PluginServerMetrics.Counter RESUMES_DELTA = resumesCounter("delta");
+    private static final PluginServerMetrics.Counter RESUMES_SNAPSHOT = resumesCounter("snapshot");
+    private static final PluginServerMetrics.Counter UP_TO_DATE = PluginServerMetrics.getInstance().counter(
+            "scratchomised_up_to_date_total", "Ready clients whose cached objects were up to date");
+
+    private Home _home;
+    private PluginServerUpdateScheduler _updateScheduler;
+    private PluginServerDebugWindow _debugWindow;
+    private Logger _logger = Log.getLogger(PluginServerHomeObserver.class);
+    // Sessions ayant envoyé client_ready, qui reçoivent les modifications
+    private CopyOnWriteArrayList<PluginServerWebSocketEndpoint> _sessions = new CopyOnWriteArrayList<>();
+    // Dernier état envoyé aux clients pour chaque objet, afin de n'envoyer que les différences
+    private LinkedHashMap<String, PluginServerObjectState> _sentObjects = new LinkedHashMap<String, PluginServerObjectState>();
+    // Instantanés pour chaque abonnement, réutilisés (et donc encodés une seule
+    // fois par format) tant que rien n'a changé
+    private HashMap<PluginServerSubscription, PluginServerFrame[]> _snapshotFrames = new HashMap<PluginServerSubscription, PluginServerFrame[]>();
+    // Modifications reçues des écouteurs, pas encore traitées par le planificateur
+    private ConcurrentLinkedQueue<ChangeRecord> _pendingChanges = new ConcurrentLinkedQueue<ChangeRecord>();
+    private AtomicBoolean _flushScheduled = new AtomicBoolean(false);
+    // Nombre de lots de modifications en cours, pendant lesquels rien n'est envoyé
+    private AtomicInteger _runningBatches = new AtomicInteger(0);
+    // Objets modifiés ou supprimés depuis le dernier envoi, regroupés par le planificateur
+    private LinkedHashSet<HomePieceOfFurniture> _dirtyObjects = new LinkedHashSet<HomePieceOfFurniture>();
+    private LinkedHashSet<HomePieceOfFurniture> _removedObjects = new LinkedHashSet<HomePieceOfFurniture>();
+    // Identifiant de cet observateur : les numéros de séquence d'un autre serveur
+    // (redémarré par exemple) ne correspondent à rien ici
+    private String _epoch = UUID.randomUUID().toString();
+    // Numéro du dernier lot de modifications
+    private long _sequence = 0;
+    // Derniers lots de modifications, pour les clients qui se reconnectent
+    private PluginServerLogBuffer<ChangeSet> _changeLog;
+    // Somme des empreintes des objets de _sentObjects, indépendante de leur ordre
+    private long _contentHash = 0;
+    // Nombre maximal d'objets par message d'un instantané
+    private int _snapshotChunkSize;
+
+    private static PluginServerMetrics.Counter resumesCounter(String result) {
+        return PluginServerMetrics.getInstance().counter("scratchomised_resumes_total",
+                "Reconnections resumed with the missed changes (delta) or with a snapshot", "result", result);
+    }
+
+    /**
+     * Modification d'un objet, telle que reçue par un écouteur
+     */
+    private static class ChangeRecord {
+        final HomePieceOfFurniture furniture;
+        final boolean removed;
+        final long time;
+
+        ChangeRecord(HomePieceOfFurniture furniture, boolean removed) {
+            this.furniture = furniture;
+            this.removed = removed;
+            this.time = System.nanoTime();
+        }
+    }
+
+    /**
+     * Objet dont des propriétés ont changé, avec le masque de ces propriétés
+     */
+    static class ChangedObject {
+        final PluginServerObjectState state;
+        final int changedProperties;
+
+        ChangedObject(PluginServerObjectState state, int changedProperties) {
+            this.state = state;
+            this.changedProperties = changedProperties;
+        }
+    }
+
+    /**
+     * Lot de modifications envoyé aux clients, indépendant des abonnements
+     */
+    static class ChangeSet {
+        final long sequence;
+        // Empreinte du contenu après ce lot
+        final long contentHash;
+        final ArrayList<ChangedObject> changed;
+        final ArrayList<PluginServerObjectState> added;
+        final ArrayList<String> removed;
+
+        ChangeSet(long sequence, long contentHash, ArrayList<ChangedObject> changed,
+                ArrayList<PluginServerObjectState> added, ArrayList<String> removed) {
+            this.sequence = sequence;
+            this.contentHash = contentHash;
+            this.changed = changed;
+            this.added = added;
+            this.removed = removed;
+        }
+    }
+
+    public PluginServerHomeObserver(Home home, PluginServerUpdateScheduler updateScheduler,
+            PluginServerDebugWindow debugWindow, PluginServerSettings settings) {
+        this._home = home;
+        this._updateScheduler = updateScheduler;
+        this._debugWindow = debugWindow;
+        this._changeLog = new PluginServerLogBuffer<ChangeSet>(Math.max(1, settings.change_log_size));
+        this._snapshotChunkSize = Math.max(1, settings.snapshot_chunk_size);
+        // Le plan n'est modifié que par le thread de l'interface : les écouteurs y
+        // sont ajoutés, en même temps que la liste des objets est lue, pour n'en
+        // manquer aucun. L'état initial est ensuite mémorisé avant toute session.
+        if (SwingUtilities.isEventDispatchThread()) {
+            this.start();
+        } else {
+            try {
+                SwingUtilities.invokeAndWait(this::start);
+            } catch (InvocationTargetException ex) {
+                this._logger.warn("Cannot observe the home", ex.getCause());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Commence à écouter le plan, sur le thread de l'interface, puis fait
+     * mémoriser l'état initial des objets par le planificateur
+     */
+    private void start() {
+        if (this._home == null) {
+            if (this._debugWindow != null) {
+                this._debugWindow.addLog("Cannot observe objects: home is null", PluginServerDebugWindow.LogType.ERROR);
+            }
+            return;
+        }
+        this._home.addFurnitureListener(this);
+
+        ArrayList<HomePieceOfFurniture> allFurniture = new ArrayList<HomePieceOfFurniture>(
+                FurnitureIndex.getAllFurniture(this._home.getFurniture()));
+        int totalObjects = 0;
+        for (HomePieceOfFurniture furniture : allFurniture) {
+            totalObjects++;
+            furniture.addPropertyChangeListener(this);
+
+            // Log toutes les classes de l'objet pour identifier les interrupteurs
+            if (this._debugWindow != null) {
+                try {
+                    String objectName = furniture.getName() != null ? furniture.getName() : "unnamed";
+                    String catalogId = furniture.getCatalogId() != null ? furniture.getCatalogId() : "no catalogId";
+
+                    ArrayList<String> allClasses = new ArrayList<String>();
+                    Class<?> current_class = furniture.getClass();
+                    while (current_class != null && current_class != Object.class) {
+                        allClasses.add(current_class.getCanonicalName());
+                        current_class = current_class.getSuperclass();
+                    }
+
+                    this._debugWindow.addLog("Object #" + totalObjects + ": name='" + objectName + "', catalogId='" + catalogId + "', classes=" + String.join(", ", allClasses), PluginServerDebugWindow.LogType.INFO);
+                } catch (Exception e) {
+                    // Ignorer les erreurs de logging
+                }
+            }
+
+        }
+        this._updateScheduler.execute(() -> this.captureObjects(allFurniture));
+    }
+
+    /**
+     * Mémorise l'état initial des objets exportés, sur le thread du planificateur
+     */
+    private void captureObjects(ArrayList<HomePieceOfFurniture> allFurniture) {
+        for (HomePieceOfFurniture furniture : allFurniture) {
+            // Filtrer pour ne garder que les lumières, lampes et interrupteurs
+            if (FurnitureClassifier.getInstance().isExported(furniture)) {
+                this.putObject(furniture.getId(), PluginServerObjectState.capture(furniture, null));
+            }
+        }
+        if (this._debugWindow != null) {
+            this._debugWindow.addLog("Observing " + this._sentObjects.size() + " objects filtered from "
+                    + allFurniture.size() + " total objects", PluginServerDebugWindow.LogType.INFO);
+        }
+    }
+
+    /**
+     * Arrête d'écouter le plan
+     */
+    public void dispose() {
+        this._sessions.clear();
+        if (this._home != null) {
+            this._home.removeFurnitureListener(this);
+            for (HomePieceOfFurniture furniture : FurnitureIndex.getAllFurniture(this._home.getFurniture())) {
+                furniture.removePropertyChangeListener(this);
+            }
+        }
+        this._pendingChanges.clear();
+    }
+
+    /**
+     * Envoie l'instantané complet des objets à une session qui vient d'envoyer
+     * client_ready, puis lui envoie les modifications suivantes
+     *
+     * @param cachedVersion la version des objets gardés par le client, ou null :
+     *                      si elle est à jour, l'instantané n'est pas envoyé
+     */
+    public void addSession(PluginServerWebSocketEndpoint session, String cachedVersion) {
+        this._updateScheduler.execute(() -> {
+            // Les modifications en attente sont d'abord envoyées aux autres sessions,
+            // pour que l'instantané corresponde à l'état qu'elles connaissent
+            this.flushUpdates();
+            if (this.getVersion(this._contentHash, session.getSubscription()).equals(cachedVersion)) {
+                if (this._debugWindow != null) {
+                    this._debugWindow.addLog("Client objects are up to date (version " + cachedVersion + ")",
+                            PluginServerDebugWindow.LogType.INFO);
+                }
+                UP_TO_DATE.increment();
+                Hashtable<String, Object> args = new Hashtable<>();
+                args.put("version", cachedVersion);
+                args.put("epoch", this._epoch);
+                args.put("seq", this._sequence);
+                session.sendFrame(new PluginServerFrame(new ScratchomisedRequest("up_to_date", args)),
+                        PluginServerOutboundQueue.Kind.UPDATE);
+            } else {
+                this.sendSnapshot(session);
+            }
+            this._sessions.addIfAbsent(session);
+        });
+    }
+
+    /**
+     * Renvoie la version du contenu vu par un abonnement : deux plans dont les
+     * objets exportés sont identiques ont la même version, pour le même abonnement
+     * et les mêmes projections
+     */
+    private String getVersion(long contentHash, PluginServerSubscription subscription) {
+        int viewKey = subscription.hashCode() * 31 + FurnitureClassifier.getInstance().getProjectionsKey();
+        return Long.toHexString(contentHash) + "-" + Integer.toHexString(viewKey);
+    }
+
+    private void putObject(String id, PluginServerObjectState state) {
+        PluginServerObjectState previousState = this._sentObjects.put(id, state);
+        if (previousState != null) {
+            this._contentHash -= previousState.getContentHash();
+        }
+        this._contentHash += state.getContentHash();
+    }
+
+    private boolean removeObject(String id) {
+        PluginServerObjectState previousState = this._sentObjects.remove(id);
+        if (previousState == null) {
+            return false;
+        }
+        this._contentHash -= previousState.getContentHash();
+        return true;
+    }
+
+    /**
+     * Reprend l'envoi des modifications à une session qui se reconnecte : elle
+     * ne reçoit que les lots postérieurs au dernier qu'elle a reçu, ou un
+     * instantané complet s'ils ne sont plus gardés ou viennent d'un autre serveur
+     *
+     * @param epoch        l'identifiant du serveur qui a envoyé les lots au client,
+     *                     ou null s'il est inconnu
+     * @param lastSequence le numéro du dernier lot reçu par le client, ou -1 s'il
+     *                     est inconnu
+     */
+    public void resumeSession(PluginServerWebSocketEndpoint session, String epoch, long lastSequence) {
+        this._updateScheduler.execute(() -> {
+            this.flushUpdates();
+            ArrayList<ChangeSet> missedChanges = this.getChangesSince(epoch, lastSequence);
+            if (missedChanges == null) {
+                if (this._debugWindow != null) {
+                    this._debugWindow.addLog("Cannot resume from sequence " + lastSequence
+                            + ", sending the whole snapshot", PluginServerDebugWindow.LogType.INFO);
+                }
+                RESUMES_SNAPSHOT.increment();
+                this.sendSnapshot(session);
+            } else {
+                if (this._debugWindow != null) {
+                    this._debugWindow.addLog("Resuming from sequence " + lastSequence + ": " + missedChanges.size()
+                            + " missed change(s)", PluginServerDebugWindow.LogType.INFO);
+                }
+                RESUMES_DELTA.increment();
+                for (ChangeSet changeSet : missedChanges) {
+                    PluginServerFrame frame = this.createDeltaFrame(session.getSubscription(), changeSet);
+                    if (frame != null) {
+                        session.sendFrame(frame, PluginServerOutboundQueue.Kind.UPDATE);
+                    }
+                }
+            }
+            this._sessions.addIfAbsent(session);
+        });
+    }
+
+    /**
+     * Renvoie les lots de modifications postérieurs à un numéro de séquence
+     *
+     * @return the change sets, or null if some of them are no longer kept
+     */
+    ArrayList<ChangeSet> getChangesSince(String epoch, long lastSequence) {
+        if (!this._epoch.equals(epoch) || lastSequence < 0 || lastSequence > this._sequence) {
+            return null;
+        }
+        ArrayList<ChangeSet> changes = new ArrayList<ChangeSet>();
+        if (lastSequence == this._sequence) {
+            return changes;
+        }
+        if (this._changeLog.size() == 0 || this._changeLog.get(0).sequence > lastSequence + 1) {
+            return null;
+        }
+        // Les numéros se suivent : le lot suivant est à un index connu
+        for (int i = (int) (lastSequence + 1 - this._changeLog.get(0).sequence); i < this._changeLog.size(); i++) {
+            changes.add(this._changeLog.get(i));
+        }
+        return changes;
+    }
+
+    /**
+     * Demande un nouvel instantané pour une session dont la file d'envoi a
+     * débordé. Il est envoyé depuis le thread du planificateur, pour ne pas
+     * bloquer la session.
+     */
+    public void requestSnapshot(PluginServerWebSocketEndpoint session) {
+        this._updateScheduler.execute(() -> {
+            if (this._sessions.contains(session)) {
+                this.sendSnapshot(session);
+            } else {
+                // La session recevra l'instantané à son client_ready, ou est fermée
+                session.cancelSnapshotRequest();
+            }
+        });
+    }
+
+    private void sendSnapshot(PluginServerWebSocketEndpoint session) {
+        PluginServerFrame[] frames = this._snapshotFrames.computeIfAbsent(session.getSubscription(),
+                this::createSnapshotFrames);
+        if (this._debugWindow != null) {
+            this._debugWindow.addLog("Preparing to send update_objects: " + this._sentObjects.size() + " objects in "
+                    + frames.length + " message(s) (" + session.getSubscription() + ")",
+                    PluginServerDebugWindow.LogType.INFO);
+        }
+        // Le premier message remplace ceux en attente, les suivants sont envoyés dans
+        // l'ordre, avant les modifications, sans compter dans la taille de la file
+        session.sendFrame(frames[0], PluginServerOutboundQueue.Kind.SNAPSHOT);
+        for (int i = 1; i < frames.length; i++) {
+            session.sendFrame(frames[i], PluginServerOutboundQueue.Kind.SNAPSHOT_CHUNK);
+        }
+    }
+
+    /**
+     * Crée l'instantané des objets concernés par un abonnement : un seul message
+     * update_objects s'il y a peu d'objets, sinon des messages
+     * update_objects_chunk d'au plus snapshot_chunk_size objets
+     */
+    private PluginServerFrame[] createSnapshotFrames(PluginServerSubscription subscription) {
+        // Les états ne changent pas : seule la liste est copiée
+        ArrayList<PluginServerObjectState> objects = new ArrayList<PluginServerObjectState>();
+        for (PluginServerObjectState object : this._sentObjects.values()) {
+            if (subscription.matchesObject(object)) {
+                objects.add(object);
+            }
+        }
+        // Les instantanés sont recréés à chaque modification : le numéro est celui de leur état
+        long sequence = this._sequence;
+        String version = this.getVersion(this._contentHash, subscription);
+        if (objects.size() <= this._snapshotChunkSize) {
+            return new PluginServerFrame[] { new PluginServerFrame("update_objects", (generator) -> {
+                generator.writeStartObject();
+                generator.writeStringField("epoch", this._epoch);
+                generator.writeNumberField("seq", sequence);
+                generator.writeStringField("version", version);
+                generator.writeArrayFieldStart("objects");
+                for (PluginServerObjectState object : objects) {
+                    object.write(generator, subscription);
+                }
+                generator.writeEndArray();
+                generator.writeEndObject();
+            }) };
+        }
+
+        int chunkCount = (objects.size() + this._snapshotChunkSize - 1) / this._snapshotChunkSize;
+        PluginServerFrame[] frames = new PluginServerFrame[chunkCount];
+        for (int i = 0; i < chunkCount; i++) {
+            int index = i;
+            int start = i * this._snapshotChunkSize;
+            int end = Math.min(start + this._snapshotChunkSize, objects.size());
+            frames[i] = new PluginServerFrame("update_objects_chunk", (generator) -> {
+                generator.writeStartObject();
+                generator.writeStringField("epoch", this._epoch);
+                generator.writeNumberField("seq", sequence);
+                generator.writeStringField("version", version);
+                generator.writeNumberField("index", index);
+                generator.writeNumberField("chunks", chunkCount);
+                // Nombre d'objets reçus avec ce message, sur le nombre total
+                generator.writeNumberField("progress", end);
+                generator.writeNumberField("total", objects.size());
+                generator.writeArrayFieldStart("objects");
+                for (int j = start; j < end; j++) {
+                    objects.get(j).write(generator, subscription);
+                }
+                generator.writeEndArray();
+                generator.writeEndObject();
+            });
+        }
+        return frames;
+    }
+
+    /**
+     * Exécute une tâche sur le thread du planificateur, après les modifications
+     * déjà reçues
+     */
+    public void execute(Runnable task) {
+        this._updateScheduler.execute(task);
+    }
+
+    /**
+     * Exécute une tâche sur le thread du planificateur, à la fin de l'intervalle
+     * de regroupement
+     */
+    public void schedule(Runnable task) {
+        this._updateScheduler.schedule(task);
+    }
+
+    /**
+     * Arrête d'envoyer les modifications à une session
+     */
+    public void removeSession(PluginServerWebSocketEndpoint session) {
+        this._sessions.remove(session);
+    }
+
+    public int getSessionCount() {
+        return this._sessions.size();
+    }
+
+    String getEpoch() {
+        return this._epoch;
+    }
+
+    @Override
+    public void collectionChanged(CollectionEvent<HomePieceOfFurniture> event) {
+        // Un groupe ajouté ou supprimé l'est avec tous les meubles qu'il contient
+        for (HomePieceOfFurniture furniture : FurnitureIndex.getAllFurniture(event.getItem())) {
+            if (event.getType() == Type.ADD) {
+                furniture.addPropertyChangeListener(this);
+                this.markDirty(furniture);
+            } else if (event.getType() == Type.DELETE) {
+                furniture.removePropertyChangeListener(this);
+                this.enqueue(new ChangeRecord(furniture, true));
+            }
+        }
+    }
+
+    @Override
+    public void propertyChange(PropertyChangeEvent event) {
+        if (event.getSource() instanceof HomePieceOfFurniture) {
+            this.markDirty((HomePieceOfFurniture) event.getSource());
+        }
+    }
+
+    /**
+     * Marque un objet comme modifié : il sera envoyé à la fin de l'intervalle de
+     * regroupement. Peut être appelé depuis n'importe quel thread.
+     */
+    public void markDirty(HomePieceOfFurniture furniture) {
+        this.enqueue(new ChangeRecord(furniture, false));
+    }
+
+    /**
+     * Fait un lot de modifications du plan, puis envoie toutes ces modifications
+     * dans un seul message, quelle que soit la durée du lot
+     */
+    public void runBatch(Runnable batch) {
+        this._runningBatches.incrementAndGet();
+        try {
+            batch.run();
+        } finally {
+            this._runningBatches.decrementAndGet();
+            this._updateScheduler.execute(this::flushUpdates);
+        }
+    }
+
+    private void enqueue(ChangeRecord change) {
+        this._pendingChanges.add(change);
+        if (this._flushScheduled.compareAndSet(false, true)) {
+            this._updateScheduler.schedule(this::flushUpdates);
+        }
+    }
+
+    /**
+     * Encode une seule fois toutes les modifications en attente dans un message
+     * object_delta, et l'envoie à toutes les sessions prêtes
+     */
+    private void flushUpdates() {
+        if (this._runningBatches.get() > 0) {
+            // Le lot en cours demandera lui-même l'envoi quand il sera terminé
+            return;
+        }
+        // Autoriser une nouvelle planification avant de vider la file, pour ne
+        // perdre aucune modification arrivée pendant l'envoi
+        this._flushScheduled.set(false);
+        int events = 0;
+        long firstEventTime = 0;
+        ChangeRecord change;
+        while ((change = this._pendingChanges.poll()) != null) {
+            if (events == 0) {
+                firstEventTime = change.time;
+            }
+            events++;
+            if (change.removed) {
+                this._dirtyObjects.remove(change.furniture);
+                this._removedObjects.add(change.furniture);
+            } else {
+                this._removedObjects.remove(change.furniture);
+                this._dirtyObjects.add(change.furniture);
+            }
+        }
+        if (events == 0) {
+            return;
+        }
+
+        long allocationStart = PluginServerUpdateScheduler.getAllocatedBytes();
+        ArrayList<ChangedObject> changed = new ArrayList<ChangedObject>();
+        ArrayList<PluginServerObjectState> added = new ArrayList<PluginServerObjectState>();
+        ArrayList<String> removed = new ArrayList<String>();
+        for (HomePieceOfFurniture furniture : this._dirtyObjects) {
+            this.collectObjectDelta(furniture, changed, added, removed);
+        }
+        for (HomePieceOfFurniture furniture : this._removedObjects) {
+            if (this.removeObject(furniture.getId())) {
+                removed.add(furniture.getId());
+            }
+        }
+        this._dirtyObjects.clear();
+        this._removedObjects.clear();
+
+        int messages = 0;
+        if (!changed.isEmpty() || !added.isEmpty() || !removed.isEmpty()) {
+            this._snapshotFrames.clear();
+            ChangeSet changeSet = this.addChangeSet(changed, added, removed);
+            // Un message par abonnement différent, partagé par les sessions ayant le même
+            HashMap<PluginServerSubscription, PluginServerFrame> frames = new HashMap<PluginServerSubscription, PluginServerFrame>();
+            for (PluginServerWebSocketEndpoint session : this._sessions) {
+                PluginServerSubscription subscription = session.getSubscription();
+                if (!frames.containsKey(subscription)) {
+                    frames.put(subscription, this.createDeltaFrame(subscription, changeSet));
+                }
+                PluginServerFrame frame = frames.get(subscription);
+                if (frame != null && session.sendFrame(frame, PluginServerOutboundQueue.Kind.UPDATE)) {
+                    messages++;
+                }
+            }
+        }
+        this._updateScheduler.recordFlush(events, messages, System.nanoTime() - firstEventTime,
+                PluginServerUpdateScheduler.getAllocatedBytes() - allocationStart);
+    }
+
+    /**
+     * Numérote un lot de modifications et le garde pour les clients qui se
+     * reconnectent
+     */
+    ChangeSet addChangeSet(ArrayList<ChangedObject> changed, ArrayList<PluginServerObjectState> added,
+            ArrayList<String> removed) {
+        ChangeSet changeSet = new ChangeSet(++this._sequence, this._contentHash, changed, added, removed);
+        this._changeLog.add(changeSet);
+        return changeSet;
+    }
+
+    /**
+     * Crée le message object_delta contenant les modifications concernées par un
+     * abonnement. Les propriétés sont écrites directement depuis les états des
+     * objets, sans map intermédiaire.
+     *
+     * @return the message, or null if none of the changes is relevant
+     */
+    private PluginServerFrame createDeltaFrame(PluginServerSubscription subscription, ChangeSet changeSet) {
+        ArrayList<ChangedObject> changed = changeSet.changed;
+        ArrayList<PluginServerObjectState> added = changeSet.added;
+        ArrayList<String> removed = changeSet.removed;
+        boolean relevant = !removed.isEmpty();
+        for (int i = 0; !relevant && i < changed.size(); i++) {
+            ChangedObject change = changed.get(i);
+            relevant = subscription.matchesObject(change.state)
+                    && change.state.hasChanges(change.changedProperties, subscription);
+        }
+        for (int i = 0; !relevant && i < added.size(); i++) {
+            relevant = subscription.matchesObject(added.get(i));
+        }
+        // Les suppressions sont toujours envoyées : l'objet n'est plus là pour savoir s'il était concerné
+        if (!relevant) {
+            return null;
+        }
+        return new PluginServerFrame("object_delta", (generator) -> {
+            generator.writeStartObject();
+            generator.writeNumberField("seq", changeSet.sequence);
+            generator.writeStringField("version", this.getVersion(changeSet.contentHash, subscription));
+            generator.writeArrayFieldStart("changed");
+            for (ChangedObject change : changed) {
+                if (subscription.matchesObject(change.state)) {
+                    change.state.writeChanges(generator, change.changedProperties, subscription);
+                }
+            }
+            generator.writeEndArray();
+            generator.writeArrayFieldStart("added");
+            for (PluginServerObjectState object : added) {
+                if (subscription.matchesObject(object)) {
+                    object.write(generator, subscription);
+                }
+            }
+            generator.writeEndArray();
+            generator.writeArrayFieldStart("removed");
+            for (String id : removed) {
+                generator.writeString(id);
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        });
+    }
+
+    /**
+     * Calcule ce qui a changé pour un objet depuis le dernier envoi : propriétés modifiées,
+     * ou ajout/suppression si l'objet entre ou sort du filtre
+     */
+    private void collectObjectDelta(HomePieceOfFurniture furniture, ArrayList<ChangedObject> changed,
+            ArrayList<PluginServerObjectState> added, ArrayList<String> removed) {
+        String id = furniture.getId();
+        PluginServerObjectState previousState = this._sentObjects.get(id);
+
+        if (!FurnitureClassifier.getInstance().isExported(furniture)) {
+            // L'objet ne passe plus le filtre (renommé par exemple)
+            if (previousState != null) {
+                this.removeObject(id);
+                removed.add(id);
+            }
+        } else {
+            // Un nouvel état n'est créé que si une propriété a changé
+            PluginServerObjectState state = PluginServerObjectState.capture(furniture, previousState);
+            if (previousState == null) {
+                this.putObject(id, state);
+                added.add(state);
+            } else if (state != previousState) {
+                this.putObject(id, state);
+                changed.add(new ChangedObject(state, state.getChangedProperties(previousState)));
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package io.github.totchi_lagawi.scratchomised_plugin;
+
+import java.util.Arrays;
+
+/**
+ * Tampon circulaire de taille fixe : une fois plein, chaque ajout remplace
+ * l'élément le plus ancien. L'ajout et l'accès par index se font en temps
+ * constant, quel que soit le nombre d'éléments déjà ajoutés.
+ *
+ * Non synchronisé : chaque tampon n'est utilisé que par un seul thread.
+ */
+public class PluginServerLogBuffer<T> {
+    private Object[] _elements;
+    // Index du plus ancien élément
+    private int _start = 0;
+    private int _size = 0;
+
+    public PluginServerLogBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this._elements = new Object[capacity];
+    }
+
+    /**
+     * Ajoute un élément à la fin
+     *
+     * @return whether the oldest element was removed to make room
+     */
+    public boolean add(T element) {
+        if (this._size < this._elements.length) {
+            this._elements[(this._start + this._size) % this._elements.length] = element;
+            this._size++;
+            return false;
+        }
+        this._elements[this._start] = element;
+        this._start = (this._start + 1) % this._elements.length;
+        return true;
+    }
+
+    /**
+     * Renvoie l'élément à un index, 0 étant le plus ancien
+     */
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        if (index < 0 || index >= this._size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + this._size);
+        }
+        return (T) this._elements[(this._start + index) % this._elements.length];
+    }
+
+    public int size() {
+        return this._size;
+    }
+
+    public int getCapacity() {
+        return this._elements.length;
+    }
+
+    public void clear() {
+        Arrays.fill(this._elements, null);
+        this._start = 0;
+        this._size = 0;
+    }
+}
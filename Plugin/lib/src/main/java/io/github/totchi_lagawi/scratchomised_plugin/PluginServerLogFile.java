@@ -0,0 +1,82 @@
+package io.github.totchi_lagawi.scratchomised_plugin;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Fichier de logs tournant : quand il dépasse sa taille maximale, il est
+ * renommé en .1 (le .1 en .2, etc.) et un nouveau fichier est commencé. Seuls
+ * les fichiers les plus récents sont gardés.
+ *
+ * Non synchronisé : utilisé uniquement par le thread d'écriture du logger.
+ */
+public class PluginServerLogFile {
+    private File _file;
+    private long _maxSize;
+    private int _maxFiles;
+    private Writer _writer;
+    private long _size;
+
+    /**
+     * @param maxSize  la taille (en octets) à partir de laquelle un nouveau fichier
+     *                 est commencé
+     * @param maxFiles le nombre de fichiers gardés, fichier courant compris
+     */
+    public PluginServerLogFile(File file, long maxSize, int maxFiles) throws IOException {
+        this._file = file;
+        this._maxSize = Math.max(1024, maxSize);
+        this._maxFiles = Math.max(1, maxFiles);
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Couldn't create the directory " + directory);
+        }
+        this.open();
+    }
+
+    private void open() throws IOException {
+        this._size = this._file.length();
+        this._writer = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(this._file, true), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Écrit une ligne, en changeant de fichier si nécessaire
+     */
+    public void writeLine(String line) throws IOException {
+        if (this._size >= this._maxSize) {
+            this.rotate();
+        }
+        this._writer.write(line);
+        this._writer.write(System.lineSeparator());
+        // Approximation : les caractères non ASCII prennent plus d'un octet
+        this._size += line.length() + System.lineSeparator().length();
+    }
+
+    private void rotate() throws IOException {
+        this._writer.close();
+        String path = this._file.getPath();
+        new File(path + "." + (this._maxFiles - 1)).delete();
+        for (int i = this._maxFiles - 2; i >= 1; i--) {
+            new File(path + "." + i).renameTo(new File(path + "." + (i + 1)));
+        }
+        if (this._maxFiles > 1) {
+            this._file.renameTo(new File(path + ".1"));
+        } else {
+            this._file.delete();
+        }
+        this.open();
+    }
+
+    public void flush() throws IOException {
+        this._writer.flush();
+    }
+
+    public void close() throws IOException {
+        this._writer.close();
+    }
+}
@@ -1,113 +1,397 @@
 package io.github.totchi_lagawi.scratchomised_plugin;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 
+/**
+ * Logger du serveur, utilisé aussi par Jetty. Les appels ne font que vérifier
+ * le niveau puis ajouter la ligne à une file sans verrou : les arguments ne sont
+ * mis en forme, et la ligne écrite dans la console (et éventuellement dans un
+ * fichier tournant), que par un thread dédié. Un appel en dessous du niveau
+ * actif ne coûte qu'une comparaison.
+ *
+ * Si la file est pleine, les nouvelles lignes sont perdues plutôt que de
+ * bloquer les threads de Jetty.
+ *
+ * Jetty garde ses loggers dans des champs statiques : le logger n'est donc
+ * installé qu'une fois par processus, et sa sortie est reconfigurée (niveau,
+ * fichier) à chaque démarrage d'un serveur plutôt que remplacée.
+ */
 public class PluginServerLogger implements Logger {
-    private LanguageManager _languageManager;
-    private PluginServerLogLevel _logLevel = PluginServerLogLevel.INFO;
+    private static PluginServerLogger _instance;
+
+    private String _name;
+    private Output _output;
+
+    /**
+     * Ligne en attente d'écriture, avec ses arguments non mis en forme
+     */
+    private static class LogRecord {
+        final long time = System.currentTimeMillis();
+        final String thread = Thread.currentThread().getName();
+        final PluginServerLogLevel level;
+        final String name;
+        final String message;
+        final Object[] args;
+        final Throwable thrown;
 
-    public PluginServerLogger(LanguageManager languageManager) {
-        this._languageManager = languageManager;
+        LogRecord(PluginServerLogLevel level, String name, String message, Object[] args, Throwable thrown) {
+            this.level = level;
+            this.name = name;
+            this.message = message;
+            this.args = args;
+            this.thrown = thrown;
+        }
+    }
+
+    /**
+     * File et thread d'écriture, partagés par le logger et ceux qu'il crée pour
+     * Jetty
+     */
+    private static class Output implements Runnable {
+        private volatile PluginServerLogLevel _level;
+        private String _prefix;
+        private int _capacity;
+        private ConcurrentLinkedQueue<LogRecord> _records = new ConcurrentLinkedQueue<>();
+        private AtomicInteger _size = new AtomicInteger();
+        private AtomicLong _dropped = new AtomicLong();
+        private PluginServerLogFile _file;
+        // Nombre de serveurs démarrés utilisant cette sortie
+        private int _users = 0;
+        private Thread _thread;
+        private volatile boolean _waiting = false;
+        private SimpleDateFormat _dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+
+        /**
+         * Applique les réglages d'un serveur qui démarre, et démarre le thread
+         * d'écriture la première fois
+         */
+        synchronized void open(String prefix, PluginServerSettings settings) {
+            this._prefix = prefix;
+            this._level = settings.log_level != null ? settings.log_level : PluginServerLogLevel.INFO;
+            this._capacity = Math.max(1, settings.log_queue_size);
+            this._users++;
+            this.closeFile();
+            if (settings.log_file != null && !settings.log_file.isEmpty()) {
+                try {
+                    this._file = new PluginServerLogFile(new File(settings.log_file), settings.log_file_size,
+                            settings.log_file_count);
+                } catch (IOException ex) {
+                    System.err.println(this._prefix + "Couldn't open the log file " + settings.log_file + ": "
+                            + ex.getMessage());
+                }
+            }
+            if (this._thread == null) {
+                this._thread = new Thread(this, "Scratchomised - Logger");
+                this._thread.setDaemon(true);
+                this._thread.start();
+            }
+        }
+
+        /**
+         * Écrit les lignes en attente, puis ferme le fichier quand plus aucun
+         * serveur n'utilise la sortie. Le thread d'écriture continue : les loggers
+         * de Jetty l'utilisent encore.
+         */
+        synchronized void close() {
+            LogRecord record;
+            while ((record = this.poll()) != null) {
+                this.write(record);
+            }
+            this.flush();
+            if (--this._users <= 0) {
+                this._users = 0;
+                this.closeFile();
+            }
+        }
+
+        void offer(LogRecord record) {
+            if (this._size.incrementAndGet() > this._capacity) {
+                this._size.decrementAndGet();
+                this._dropped.incrementAndGet();
+                return;
+            }
+            this._records.offer(record);
+            if (this._waiting) {
+                LockSupport.unpark(this._thread);
+            }
+        }
+
+        private LogRecord poll() {
+            LogRecord record = this._records.poll();
+            if (record != null) {
+                this._size.decrementAndGet();
+            }
+            return record;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                // Sous le verrou, pour que close() et open() ne changent pas le
+                // fichier pendant l'écriture d'une ligne
+                synchronized (this) {
+                    LogRecord record = this.poll();
+                    if (record != null) {
+                        this.write(record);
+                        continue;
+                    }
+                    this.flush();
+                }
+                this._waiting = true;
+                // Vérifier à nouveau après avoir indiqué l'attente, pour ne pas manquer un réveil
+                if (this._records.isEmpty()) {
+                    LockSupport.park(this);
+                }
+                this._waiting = false;
+            }
+        }
+
+        private void write(LogRecord record) {
+            long dropped = this._dropped.getAndSet(0);
+            if (dropped > 0) {
+                this.write(new LogRecord(PluginServerLogLevel.WARN, null,
+                        dropped + " log line(s) dropped, the log queue was full", null, null));
+            }
+
+            StringBuilder line = new StringBuilder(this._prefix);
+            if (record.level == PluginServerLogLevel.WARN) {
+                line.append("[WARN] ");
+            } else if (record.level == PluginServerLogLevel.DEBUG || record.level == PluginServerLogLevel.ALL) {
+                line.append("[DEBUG] ");
+            }
+            if (record.thrown != null) {
+                line.append(record.thrown.getClass().getCanonicalName()).append(": ");
+            }
+            if (record.message != null) {
+                format(line, record.message, record.args);
+            } else if (record.thrown != null) {
+                line.append(record.thrown.getMessage());
+            }
+            String text = line.toString();
+            if (record.level == PluginServerLogLevel.WARN) {
+                System.err.println(text);
+            } else {
+                System.out.println(text);
+            }
+
+            if (this._file != null) {
+                try {
+                    // Le fichier contient aussi la date, le thread et la pile d'appels
+                    StringBuilder fileLine = new StringBuilder();
+                    fileLine.append(this._dateFormat.format(new Date(record.time))).append(" [")
+                            .append(record.thread).append("] ");
+                    if (record.name != null) {
+                        fileLine.append(record.name).append(" - ");
+                    }
+                    fileLine.append(text);
+                    this._file.writeLine(fileLine.toString());
+                    if (record.thrown != null) {
+                        StringWriter stackTrace = new StringWriter();
+                        record.thrown.printStackTrace(new PrintWriter(stackTrace));
+                        this._file.writeLine(stackTrace.toString().trim());
+                    }
+                } catch (IOException ex) {
+                    System.err.println(this._prefix + "Couldn't write to the log file: " + ex.getMessage());
+                    this.closeFile();
+                }
+            }
+        }
+
+        private void flush() {
+            System.out.flush();
+            if (this._file != null) {
+                try {
+                    this._file.flush();
+                } catch (IOException ex) {
+                    this.closeFile();
+                }
+            }
+        }
+
+        private void closeFile() {
+            if (this._file != null) {
+                try {
+                    this._file.close();
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+                this._file = null;
+            }
+        }
+    }
+
+    private PluginServerLogger(String name, Output output) {
+        this._name = name;
+        this._output = output;
+    }
+
+    /**
+     * Installe le logger pour Jetty s'il ne l'est pas encore, et lui applique les
+     * réglages d'un serveur qui démarre. Doit être appelé avant que Jetty ne crée
+     * ses loggers.
+     */
+    public static synchronized PluginServerLogger install(LanguageManager languageManager,
+            PluginServerSettings settings) {
+        if (_instance == null) {
+            _instance = new PluginServerLogger("Scratchomised", new Output());
+            Log.setLog(_instance);
+        }
+        // Le préfixe est traduit une seule fois, et non à chaque ligne
+        _instance._output.open(languageManager.getString("log_prefix"), settings);
+        return _instance;
+    }
+
+    /**
+     * Écrit les lignes en attente, quand un serveur s'arrête. La sortie reste
+     * utilisable par les loggers de Jetty.
+     */
+    public void close() {
+        this._output.close();
+    }
+
+    /**
+     * Remplace les {} du message par les arguments, comme le fait Jetty. Les
+     * arguments en trop sont ajoutés à la fin.
+     */
+    private static void format(StringBuilder builder, String message, Object[] args) {
+        int start = 0;
+        int argument = 0;
+        if (args != null) {
+            int index;
+            while (argument < args.length && (index = message.indexOf("{}", start)) >= 0) {
+                builder.append(message, start, index).append(String.valueOf(args[argument++]));
+                start = index + 2;
+            }
+        }
+        builder.append(message, start, message.length());
+        if (args != null) {
+            while (argument < args.length) {
+                builder.append(' ').append(String.valueOf(args[argument++]));
+            }
+        }
+    }
+
+    private boolean isEnabled(PluginServerLogLevel level) {
+        return this._output._level.compareTo(level) <= 0;
+    }
+
+    private void log(PluginServerLogLevel level, String msg, Object[] args, Throwable thrown) {
+        this._output.offer(new LogRecord(level, this._name, msg, args, thrown));
     }
 
     @Override
     public String getName() {
-        return "Scratchomised Plugin Logger";
+        return this._name;
     }
 
     @Override
     public void warn(String msg, Object... args) {
-        if (this._logLevel.compareTo(PluginServerLogLevel.WARN) <= 0) {
-            System.err.println(this._languageManager.getString("log_prefix") + "[WARN] " + msg);
+        if (this.isEnabled(PluginServerLogLevel.WARN)) {
+            this.log(PluginServerLogLevel.WARN, msg, args, null);
         }
     }
 
     @Override
     public void warn(Throwable thrown) {
-        if (this._logLevel.compareTo(PluginServerLogLevel.WARN) <= 0) {
-            System.err.println(this._languageManager.getString("log_prefix") + "[WARN] "
-                    + thrown.getClass().getCanonicalName() + ": " + thrown.getMessage());
+        if (this.isEnabled(PluginServerLogLevel.WARN)) {
+            this.log(PluginServerLogLevel.WARN, null, null, thrown);
         }
     }
 
     @Override
     public void warn(String msg, Throwable thrown) {
-        if (this._logLevel.compareTo(PluginServerLogLevel.WARN) <= 0) {
-            System.err.println(this._languageManager.getString("log_prefix") + "[WARN] "
-                    + thrown.getClass().getCanonicalName() + ": " + msg);
+        if (this.isEnabled(PluginServerLogLevel.WARN)) {
+            this.log(PluginServerLogLevel.WARN, msg, null, thrown);
         }
     }
 
     @Override
     public void info(String msg, Object... args) {
-        if (this._logLevel.compareTo(PluginServerLogLevel.INFO) <= 0) {
-            System.out.println(this._languageManager.getString("log_prefix") + msg);
+        if (this.isEnabled(PluginServerLogLevel.INFO)) {
+            this.log(PluginServerLogLevel.INFO, msg, args, null);
         }
     }
 
     @Override
     public void info(Throwable thrown) {
-        if (this._logLevel.compareTo(PluginServerLogLevel.INFO) <= 0) {
-            System.out.println(this._languageManager.getString("log_prefix") + thrown.getClass().getCanonicalName()
-                    + ": " + thrown.getMessage());
+        if (this.isEnabled(PluginServerLogLevel.INFO)) {
+            this.log(PluginServerLogLevel.INFO, null, null, thrown);
         }
     }
 
     @Override
     public void info(String msg, Throwable thrown) {
-        if (this._logLevel.compareTo(PluginServerLogLevel.INFO) <= 0) {
-            System.out.println(
-                    this._languageManager.getString("log_prefix") + thrown.getClass().getCanonicalName() + ": " + msg);
+        if (this.isEnabled(PluginServerLogLevel.INFO)) {
+            this.log(PluginServerLogLevel.INFO, msg, null, thrown);
         }
     }
 
     @Override
     public boolean isDebugEnabled() {
-        return this._logLevel.compareTo(PluginServerLogLevel.DEBUG) <= 0;
+        return this.isEnabled(PluginServerLogLevel.DEBUG);
     }
 
     @Override
     public void setDebugEnabled(boolean enabled) {
-        this._logLevel = PluginServerLogLevel.DEBUG;
+        if (enabled) {
+            this._output._level = PluginServerLogLevel.DEBUG;
+        } else if (this.isDebugEnabled()) {
+            this._output._level = PluginServerLogLevel.INFO;
+        }
     }
 
     @Override
     public void debug(String msg, Object... args) {
-        if (this._logLevel.compareTo(PluginServerLogLevel.DEBUG) <= 0) {
-            System.out.println(this._languageManager.getString("log_prefix") + "[DEBUG] " + msg);
+        if (this.isEnabled(PluginServerLogLevel.DEBUG)) {
+            this.log(PluginServerLogLevel.DEBUG, msg, args, null);
         }
     }
 
     @Override
     public void debug(String msg, long value) {
-        if (this._logLevel.compareTo(PluginServerLogLevel.DEBUG) <= 0) {
-            System.out.println(this._languageManager.getString("log_prefix") + "[DEBUG] " + msg);
+        // La valeur n'est convertie en objet que si la ligne est écrite
+        if (this.isEnabled(PluginServerLogLevel.DEBUG)) {
+            this.log(PluginServerLogLevel.DEBUG, msg, new Object[] { value }, null);
         }
     }
 
     @Override
     public void debug(Throwable thrown) {
-        if (this._logLevel.compareTo(PluginServerLogLevel.DEBUG) <= 0) {
-            System.out.println(this._languageManager.getString("log_prefix") + "[DEBUG] "
-                    + thrown.getClass().getCanonicalName() + ": " + thrown.getMessage());
+        if (this.isEnabled(PluginServerLogLevel.DEBUG)) {
+            this.log(PluginServerLogLevel.DEBUG, null, null, thrown);
         }
     }
 
     @Override
     public void debug(String msg, Throwable thrown) {
-        if (this._logLevel.compareTo(PluginServerLogLevel.DEBUG) <= 0) {
-            System.out.println(this._languageManager.getString("log_prefix") + "[DEBUG] "
-                    + thrown.getClass().getCanonicalName() + ": " + msg);
+        if (this.isEnabled(PluginServerLogLevel.DEBUG)) {
+            this.log(PluginServerLogLevel.DEBUG, msg, null, thrown);
         }
     }
 
     @Override
     public Logger getLogger(String name) {
-        return this;
+        // Les loggers créés pour Jetty partagent la file et le niveau de celui-ci
+        return new PluginServerLogger(name, this._output);
     }
 
     @Override
     public void ignore(Throwable ignored) {
+        if (this.isEnabled(PluginServerLogLevel.ALL)) {
+            this.log(PluginServerLogLevel.ALL, "Ignored", null, ignored);
+        }
     }
 
 }
@@ -0,0 +1,215 @@
+package io.github.totchi_lagawi.scratchomised_plugin;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Métriques du plugin (compteurs, jauges, histogrammes), exportées au format
+ * texte de Prometheus par PluginServerMetricsServlet.
+ *
+ * Une métrique est créée une seule fois puis gardée par l'appelant : la mettre à
+ * jour ne prend aucun verrou.
+ */
+public class PluginServerMetrics {
+    private static final PluginServerMetrics _instance = new PluginServerMetrics();
+
+    // Limites des histogrammes usuels
+    public static final double[] LATENCY_BUCKETS = { 0.0001, 0.0005, 0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1 };
+    public static final double[] SIZE_BUCKETS = { 64, 256, 1024, 4096, 16384, 65536, 262144, 1048576 };
+
+    // Métriques triées par nom, pour un export stable
+    private ConcurrentSkipListMap<String, Family> _families = new ConcurrentSkipListMap<>();
+
+    private PluginServerMetrics() {
+    }
+
+    public static PluginServerMetrics getInstance() {
+        return _instance;
+    }
+
+    /**
+     * Compteur, qui ne fait qu'augmenter
+     */
+    public static class Counter {
+        private LongAdder _value = new LongAdder();
+
+        public void increment() {
+            this._value.increment();
+        }
+
+        public void add(long value) {
+            this._value.add(value);
+        }
+
+        public long get() {
+            return this._value.sum();
+        }
+    }
+
+    /**
+     * Histogramme à limites fixes
+     */
+    public static class Histogram {
+        private double[] _buckets;
+        // Un compteur par intervalle, plus un pour les valeurs au-delà de la dernière limite
+        private LongAdder[] _counts;
+        private DoubleAdder _sum = new DoubleAdder();
+
+        Histogram(double[] buckets) {
+            this._buckets = buckets.clone();
+            this._counts = new LongAdder[buckets.length + 1];
+            for (int i = 0; i < this._counts.length; i++) {
+                this._counts[i] = new LongAdder();
+            }
+        }
+
+        public void observe(double value) {
+            // Seul le premier intervalle est compté : les valeurs cumulées sont calculées à l'export
+            int i = 0;
+            while (i < this._buckets.length && value > this._buckets[i]) {
+                i++;
+            }
+            this._counts[i].increment();
+            this._sum.add(value);
+        }
+
+        /**
+         * Ajoute une durée mesurée avec System.nanoTime(), en secondes
+         */
+        public void observeNanos(long nanos) {
+            this.observe(nanos / 1e9);
+        }
+    }
+
+    private static class Family {
+        final String type;
+        final String help;
+        // Métriques de la famille, par étiquettes ("" si aucune)
+        final Map<String, Object> metrics = new ConcurrentSkipListMap<>();
+
+        Family(String type, String help) {
+            this.type = type;
+            this.help = help;
+        }
+    }
+
+    /**
+     * Renvoie un compteur, en le créant s'il n'existe pas
+     *
+     * @param labels les noms et valeurs des étiquettes, en alternance
+     */
+    public Counter counter(String name, String help, String... labels) {
+        return (Counter) this.getFamily(name, "counter", help).metrics.computeIfAbsent(formatLabels(labels),
+                (key) -> new Counter());
+    }
+
+    /**
+     * Renvoie un histogramme, en le créant s'il n'existe pas
+     *
+     * @param buckets les limites supérieures des intervalles, croissantes
+     * @param labels  les noms et valeurs des étiquettes, en alternance
+     */
+    public Histogram histogram(String name, String help, double[] buckets, String... labels) {
+        return (Histogram) this.getFamily(name, "histogram", help).metrics.computeIfAbsent(formatLabels(labels),
+                (key) -> new Histogram(buckets));
+    }
+
+    /**
+     * Enregistre une jauge, lue à chaque export. Remplace la jauge de même nom et
+     * de mêmes étiquettes.
+     */
+    public void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        this.getFamily(name, "gauge", help).metrics.put(formatLabels(labels), value);
+    }
+
+    /**
+     * Retire une jauge, par exemple quand le serveur qui la fournit est arrêté
+     */
+    public void removeGauge(String name, String... labels) {
+        Family family = this._families.get(name);
+        if (family != null) {
+            family.metrics.remove(formatLabels(labels));
+        }
+    }
+
+    private Family getFamily(String name, String type, String help) {
+        Family family = this._families.computeIfAbsent(name, (key) -> new Family(type, help));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is already a " + family.type);
+        }
+        return family;
+    }
+
+    private static String formatLabels(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name/value pairs");
+        }
+        if (labels.length == 0) {
+            return "";
+        }
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            builder.append(i == 0 ? "" : ",").append(labels[i]).append("=\"")
+                    .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                    .append('"');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Écrit toutes les métriques au format texte de Prometheus (version 0.0.4)
+     */
+    public void write(Writer writer) throws IOException {
+        for (Map.Entry<String, Family> familyEntry : this._families.entrySet()) {
+            String name = familyEntry.getKey();
+            Family family = familyEntry.getValue();
+            if (family.metrics.isEmpty()) {
+                continue;
+            }
+            writer.write("# HELP " + name + " " + family.help + "\n");
+            writer.write("# TYPE " + name + " " + family.type + "\n");
+            for (Map.Entry<String, Object> entry : family.metrics.entrySet()) {
+                String labels = entry.getKey();
+                Object metric = entry.getValue();
+                if (metric instanceof Counter) {
+                    writeSample(writer, name, labels, ((Counter) metric).get());
+                } else if (metric instanceof DoubleSupplier) {
+                    writeSample(writer, name, labels, ((DoubleSupplier) metric).getAsDouble());
+                } else if (metric instanceof Histogram) {
+                    Histogram histogram = (Histogram) metric;
+                    String separator = labels.isEmpty() ? "" : labels + ",";
+                    long cumulativeCount = 0;
+                    for (int i = 0; i < histogram._buckets.length; i++) {
+                        cumulativeCount += histogram._counts[i].sum();
+                        writeSample(writer, name + "_bucket", separator + "le=\"" + formatNumber(histogram._buckets[i]) + "\"",
+                                cumulativeCount);
+                    }
+                    long count = cumulativeCount + histogram._counts[histogram._buckets.length].sum();
+                    writeSample(writer, name + "_bucket", separator + "le=\"+Inf\"", count);
+                    writeSample(writer, name + "_sum", labels, histogram._sum.sum());
+                    writeSample(writer, name + "_count", labels, count);
+                }
+            }
+        }
+    }
+
+    private static void writeSample(Writer writer, String name, String labels, double value) throws IOException {
+        writer.write(name);
+        if (!labels.isEmpty()) {
+            writer.write("{" + labels + "}");
+        }
+        writer.write(" " + formatNumber(value) + "\n");
+    }
+
+    private static String formatNumber(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+}
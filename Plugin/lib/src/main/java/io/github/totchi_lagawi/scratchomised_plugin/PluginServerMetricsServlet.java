@@ -0,0 +1,24 @@
+package io.github.totchi_lagawi.scratchomised_plugin;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Expose les métriques du plugin au format texte de Prometheus
+ */
+public class PluginServerMetricsServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        StringWriter metrics = new StringWriter();
+        PluginServerMetrics.getInstance().write(metrics);
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType("text/plain; version=0.0.4; charset=utf-8");
+        response.getWriter().write(metrics.toString());
+    }
+}
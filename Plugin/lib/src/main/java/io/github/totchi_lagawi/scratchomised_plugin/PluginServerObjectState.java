@@ -0,0 +1,252 @@
+package io.github.totchi_lagawi.scratchomised_plugin;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.eteks.sweethome3d.model.HomePieceOfFurniture;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * État d'un objet tel qu'envoyé aux clients : la valeur de chacune des
+ * propriétés de sa projection (les autres ne sont pas lues). Un état n'est jamais modifié, il peut donc être encodé
+ * plus tard, depuis n'importe quel thread ; un nouvel état n'est créé que si une
+ * propriété a changé.
+ */
+public class PluginServerObjectState {
+    // Propriétés envoyées aux clients, dans l'ordre
+    public static final String[] PROPERTIES = {
+        "x", "y", "z", "angle", "width", "depth", "height",
+        "visible", "locked", "name", "id", "model", "color",
+        "texture", "shininess", "power", "lightColor"
+    };
+    public static final String CLASSES_PROPERTY = "__scratchomisedClasses";
+    private static final int NAME_INDEX = 9;
+    private static final int ID_INDEX = 10;
+    // Valeur d'une propriété qui n'est pas envoyée, car ni texte, ni nombre, ni
+    // booléen, ou hors de la projection de l'objet
+    static final Object NOT_SENT = new Object();
+
+    // Les accès aux propriétés et les classes sont résolus une seule fois par classe
+    private static final ClassValue<PropertyAccessor[]> ACCESSORS = new ClassValue<PropertyAccessor[]>() {
+        @Override
+        protected PropertyAccessor[] computeValue(Class<?> type) {
+            PropertyAccessor[] accessors = new PropertyAccessor[PROPERTIES.length];
+            for (int i = 0; i < PROPERTIES.length; i++) {
+                PropertyAccessor accessor = PropertyAccessorRegistry.getInstance().getAccessor(type, PROPERTIES[i]);
+                accessors[i] = accessor != null && accessor.isReadable() ? accessor : null;
+            }
+            return accessors;
+        }
+    };
+    private static final ClassValue<List<String>> CLASSES = new ClassValue<List<String>>() {
+        @Override
+        protected List<String> computeValue(Class<?> type) {
+            ArrayList<String> classes = new ArrayList<String>();
+            Class<?> current_class = type;
+            while (current_class != null && current_class != Object.class) {
+                classes.add(current_class.getCanonicalName());
+                current_class = current_class.getSuperclass();
+            }
+            return Collections.unmodifiableList(classes);
+        }
+    };
+    // Valeurs lues avant de savoir si un nouvel état est nécessaire, réutilisées par thread
+    private static final ThreadLocal<Object[]> READ_BUFFER = ThreadLocal.withInitial(() -> new Object[PROPERTIES.length]);
+
+    private Object[] _values;
+    private List<String> _classes;
+    // Empreinte du contenu, calculée au premier appel (0 : pas encore calculée)
+    private long _contentHash = 0;
+
+    PluginServerObjectState(Object[] values, List<String> classes) {
+        this._values = values;
+        this._classes = classes;
+    }
+
+    /**
+     * Lit l'état actuel d'un meuble
+     *
+     * @param previous l'état précédent du meuble, ou null
+     * @return the previous state if no property changed, or a new state
+     */
+    public static PluginServerObjectState capture(HomePieceOfFurniture furniture, PluginServerObjectState previous) {
+        PropertyAccessor[] accessors = ACCESSORS.get(furniture.getClass());
+        int projection = FurnitureClassifier.getInstance().getProjection(furniture).getProperties();
+        Object[] values = READ_BUFFER.get();
+        boolean changed = previous == null;
+        for (int i = 0; i < accessors.length; i++) {
+            Object value = null;
+            if ((projection & (1 << i)) == 0) {
+                value = NOT_SENT;
+            } else if (accessors[i] != null) {
+                try {
+                    value = accessors[i].get(furniture);
+                } catch (Throwable ex) {
+                    value = null;
+                }
+            }
+            if (!(value == null || value == NOT_SENT || value instanceof String || value instanceof Number
+                    || value instanceof Boolean)) {
+                value = NOT_SENT;
+            }
+            values[i] = value;
+            if (!changed && !equals(value, previous._values[i])) {
+                changed = true;
+            }
+        }
+        if (!changed) {
+            return previous;
+        }
+        return new PluginServerObjectState(values.clone(), CLASSES.get(furniture.getClass()));
+    }
+
+    /**
+     * Renvoie l'index d'une propriété dans PROPERTIES
+     *
+     * @return the index, or -1 if the property isn't sent to the clients
+     */
+    public static int getPropertyIndex(String property) {
+        for (int i = 0; i < PROPERTIES.length; i++) {
+            if (PROPERTIES[i].equals(property)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean equals(Object value, Object otherValue) {
+        return value == otherValue || (value != null && value.equals(otherValue));
+    }
+
+    public String getId() {
+        Object id = this._values[ID_INDEX];
+        return id instanceof String ? (String) id : null;
+    }
+
+    public Object getName() {
+        return this._values[NAME_INDEX];
+    }
+
+    public List<String> getClasses() {
+        return this._classes;
+    }
+
+    /**
+     * Renvoie une empreinte du contenu envoyé aux clients (classes, propriétés et
+     * valeurs). Elle ne dépend que du contenu : deux états identiques, même créés
+     * par deux serveurs différents, ont la même empreinte.
+     */
+    public long getContentHash() {
+        long hash = this._contentHash;
+        if (hash == 0) {
+            hash = this._classes.hashCode();
+            for (int i = 0; i < PROPERTIES.length; i++) {
+                if (this._values[i] != NOT_SENT) {
+                    hash = hash * 31 + PROPERTIES[i].hashCode();
+                    hash = hash * 31 + (this._values[i] != null ? this._values[i].hashCode() : 0);
+                }
+            }
+            // Mélange final (celui de MurmurHash3), pour que la somme des empreintes
+            // de tous les objets reste bien répartie
+            hash ^= hash >>> 33;
+            hash *= 0xff51afd7ed558ccdL;
+            hash ^= hash >>> 33;
+            hash *= 0xc4ceb9fe1a85ec53L;
+            hash ^= hash >>> 33;
+            this._contentHash = hash;
+        }
+        return hash;
+    }
+
+    /**
+     * Renvoie les propriétés qui diffèrent d'un autre état, sous forme de masque
+     * (bit i pour PROPERTIES[i])
+     */
+    public int getChangedProperties(PluginServerObjectState other) {
+        int changedProperties = 0;
+        for (int i = 0; i < this._values.length; i++) {
+            if (!equals(this._values[i], other._values[i])) {
+                changedProperties |= 1 << i;
+            }
+        }
+        return changedProperties;
+    }
+
+    /**
+     * Écrit l'objet, réduit aux propriétés concernées par l'abonnement
+     */
+    public void write(JsonGenerator generator, PluginServerSubscription subscription) throws IOException {
+        generator.writeStartObject();
+        generator.writeArrayFieldStart(CLASSES_PROPERTY);
+        for (String className : this._classes) {
+            generator.writeString(className);
+        }
+        generator.writeEndArray();
+        for (int i = 0; i < PROPERTIES.length; i++) {
+            if (this._values[i] != NOT_SENT && subscription.matchesProperty(PROPERTIES[i])) {
+                generator.writeFieldName(PROPERTIES[i]);
+                writeValue(generator, this._values[i]);
+            }
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * Écrit une entrée {id, property, value} pour chaque propriété modifiée
+     * concernée par l'abonnement, ou {id, property, removed: true} pour une
+     * propriété qui n'est plus envoyée (par exemple quand l'objet change de
+     * projection), pour que le client ne garde pas l'ancienne valeur
+     */
+    public void writeChanges(JsonGenerator generator, int changedProperties, PluginServerSubscription subscription)
+            throws IOException {
+        for (int i = 0; i < PROPERTIES.length; i++) {
+            if ((changedProperties & (1 << i)) != 0 && subscription.matchesProperty(PROPERTIES[i])) {
+                generator.writeStartObject();
+                generator.writeStringField("id", this.getId());
+                generator.writeStringField("property", PROPERTIES[i]);
+                if (this._values[i] != NOT_SENT) {
+                    generator.writeFieldName("value");
+                    writeValue(generator, this._values[i]);
+                } else {
+                    generator.writeBooleanField("removed", true);
+                }
+                generator.writeEndObject();
+            }
+        }
+    }
+
+    /**
+     * Indique si au moins une des propriétés modifiées (ou retirées) est
+     * concernée par l'abonnement
+     */
+    public boolean hasChanges(int changedProperties, PluginServerSubscription subscription) {
+        for (int i = 0; i < PROPERTIES.length; i++) {
+            if ((changedProperties & (1 << i)) != 0 && subscription.matchesProperty(PROPERTIES[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void writeValue(JsonGenerator generator, Object value) throws IOException {
+        if (value == null) {
+            generator.writeNull();
+        } else if (value instanceof String) {
+            generator.writeString((String) value);
+        } else if (value instanceof Boolean) {
+            generator.writeBoolean((Boolean) value);
+        } else if (value instanceof Float) {
+            generator.writeNumber((Float) value);
+        } else if (value instanceof Double) {
+            generator.writeNumber((Double) value);
+        } else if (value instanceof Long) {
+            generator.writeNumber((Long) value);
+        } else if (value instanceof Number) {
+            generator.writeNumber(((Number) value).intValue());
+        } else {
+            generator.writeString(String.valueOf(value));
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package io.github.totchi_lagawi.scratchomised_plugin;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.StatusCode;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+
+/**
+ * File d'envoi bornée d'une session WebSocket : les messages sont envoyés de
+ * manière asynchrone, un à la fois, pour qu'un client lent ne bloque jamais le
+ * thread qui les produit (souvent celui de l'interface de SweetHome3D)
+ */
+public class PluginServerOutboundQueue implements WriteCallback {
+    public enum Kind {
+        // Envoyé avant tous les autres messages (ex : clics)
+        PRIORITY,
+        // Instantané complet, qui remplace tous les messages en attente
+        SNAPSHOT,
+        // Suite d'un instantané envoyé en plusieurs messages, qui ne compte pas
+        // dans la taille de la file
+        SNAPSHOT_CHUNK,
+        // Modification, envoyée dans l'ordre, remplacée par un instantané si le
+        // client est trop lent
+        UPDATE,
+        // Réponse à une demande du client, envoyée dans l'ordre avec les
+        // modifications mais jamais remplacée par un instantané
+        REPLY
+    }
+
+    /**
+     * Message de la file normale, avec son type
+     */
+    private static final class QueuedFrame {
+        final PluginServerFrame frame;
+        final Kind kind;
+
+        QueuedFrame(PluginServerFrame frame, Kind kind) {
+            this.frame = frame;
+            this.kind = kind;
+        }
+    }
+
+    private Session _session;
+    private PluginServerWireFormat _wireFormat;
+    private PluginServerDebugWindow _debugWindow;
+    private Logger _logger = Log.getLogger(PluginServerOutboundQueue.class);
+    private int _capacity;
+    private PluginServerOverflowPolicy _overflowPolicy;
+    // Demande (de manière asynchrone) un instantané à jour pour remplacer les messages abandonnés
+    private Runnable _snapshotRequest;
+    private boolean _awaitingSnapshot = false;
+    private ArrayDeque<PluginServerFrame> _priorityFrames = new ArrayDeque<PluginServerFrame>();
+    private ArrayDeque<QueuedFrame> _frames = new ArrayDeque<QueuedFrame>();
+    // Messages d'instantané de la file normale, qui ne comptent pas dans sa taille
+    private int _snapshotFrames = 0;
+    private PluginServerFrame _sendingFrame;
+    private int _sendingSize;
+    // Un thread vide déjà la file : un callback appelé pendant l'envoi ne la
+    // vide pas à son tour
+    private boolean _draining = false;
+    private long _sentFrames = 0;
+    private long _sentBytes = 0;
+    private long _droppedFrames = 0;
+    // Métriques communes à toutes les sessions utilisant le même format
+    private PluginServerMetrics.Counter _sentFramesMetric;
+    private PluginServerMetrics.Counter _sentBytesMetric;
+    private PluginServerMetrics.Counter _droppedFramesMetric;
+    private PluginServerMetrics.Counter _overflowsMetric;
+    private PluginServerMetrics.Histogram _frameSizeMetric;
+
+    public PluginServerOutboundQueue(Session session, PluginServerWireFormat wireFormat, int capacity,
+            PluginServerOverflowPolicy overflowPolicy, Runnable snapshotRequest, PluginServerDebugWindow debugWindow) {
+        this._session = session;
+        this._wireFormat = wireFormat;
+        this._capacity = Math.max(1, capacity);
+        this._overflowPolicy = overflowPolicy != null ? overflowPolicy : PluginServerOverflowPolicy.DROP_SUPERSEDED;
+        this._snapshotRequest = snapshotRequest;
+        this._debugWindow = debugWindow;
+        PluginServerMetrics metrics = PluginServerMetrics.getInstance();
+        String format = this._wireFormat.name().toLowerCase();
+        this._sentFramesMetric = metrics.counter("scratchomised_messages_sent_total", "Messages sent to clients",
+                "format", format);
+        this._sentBytesMetric = metrics.counter("scratchomised_sent_bytes_total",
+                "Size of the messages sent to clients, before compression (characters for JSON)", "format", format);
+        this._droppedFramesMetric = metrics.counter("scratchomised_messages_dropped_total",
+                "Messages dropped or replaced by a snapshot before being sent", "format", format);
+        this._overflowsMetric = metrics.counter("scratchomised_queue_overflows_total",
+                "Times a client was too slow and its outbound queue overflowed", "format", format);
+        this._frameSizeMetric = metrics.histogram("scratchomised_message_size", "Size of the messages sent to clients",
+                PluginServerMetrics.SIZE_BUCKETS, "format", format);
+    }
+
+    /**
+     * Ajoute un message à la file, sans attendre son envoi
+     *
+     * @return whether the message was queued
+     */
+    public boolean offer(PluginServerFrame frame, Kind kind) {
+        synchronized (this) {
+            if (!this._session.isOpen()) {
+                return false;
+            }
+
+            if (kind == Kind.PRIORITY) {
+                if (this._priorityFrames.size() >= this._capacity) {
+                    // Le plus ancien clic est le moins utile
+                    this._priorityFrames.poll();
+                    this.drop(1);
+                }
+                this._priorityFrames.add(frame);
+            } else if (kind == Kind.SNAPSHOT) {
+                // L'instantané contient déjà toutes les modifications en attente, y
+                // compris un instantané précédent pas encore entièrement envoyé
+                this.drop(this.dropSuperseded(true));
+                this._frames.add(new QueuedFrame(frame, kind));
+                this._snapshotFrames++;
+                this._awaitingSnapshot = false;
+            } else if (kind == Kind.SNAPSHOT_CHUNK) {
+                // Un instantané n'est jamais coupé par la politique de débordement,
+                // sinon il serait redemandé et pourrait déborder à nouveau
+                this._frames.add(new QueuedFrame(frame, kind));
+                this._snapshotFrames++;
+            } else if (kind != Kind.REPLY && this._awaitingSnapshot) {
+                // Cette modification sera contenue dans l'instantané demandé
+                this.drop(1);
+                return false;
+            } else if (this._frames.size() - this._snapshotFrames >= this._capacity && !this.overflow(kind)) {
+                return false;
+            } else {
+                // Après un débordement, seule une réponse est encore ajoutée
+                this._frames.add(new QueuedFrame(frame, kind));
+            }
+        }
+
+        this.sendNext();
+        return true;
+    }
+
+    /**
+     * Retire de la file normale les modifications, qu'un instantané remplace, en
+     * gardant les réponses
+     *
+     * @param snapshots si les messages d'un instantané précédent sont aussi retirés
+     * @return the number of removed frames
+     */
+    private int dropSuperseded(boolean snapshots) {
+        int dropped = 0;
+        for (Iterator<QueuedFrame> iterator = this._frames.iterator(); iterator.hasNext();) {
+            Kind kind = iterator.next().kind;
+            if (kind == Kind.UPDATE || (snapshots && kind != Kind.REPLY)) {
+                iterator.remove();
+                dropped++;
+                if (kind != Kind.UPDATE) {
+                    this._snapshotFrames--;
+                }
+            }
+        }
+        return dropped;
+    }
+
+    private void drop(int frames) {
+        this._droppedFrames += frames;
+        this._droppedFramesMetric.add(frames);
+    }
+
+    /**
+     * Applique la politique de débordement quand le client est trop lent
+     *
+     * @param kind le type du message qui n'a pas pu être ajouté
+     * @return whether the message should still be queued
+     */
+    private boolean overflow(Kind kind) {
+        this._overflowsMetric.increment();
+        if (this._overflowPolicy == PluginServerOverflowPolicy.DISCONNECT) {
+            if (this._debugWindow != null) {
+                this._debugWindow.addLog("Disconnecting slow client " + this._session.getRemoteAddress() + " ("
+                        + this._frames.size() + " messages waiting)", PluginServerDebugWindow.LogType.CONNECTION);
+            }
+            this.drop(this._frames.size() + this._priorityFrames.size() + 1);
+            this._frames.clear();
+            this._snapshotFrames = 0;
+            this._priorityFrames.clear();
+            this._session.close(StatusCode.TRY_AGAIN_LATER, "Client too slow");
+            return false;
+        }
+
+        // Les modifications en attente, y compris la nouvelle, seront toutes
+        // contenues dans l'instantané demandé ; les réponses sont gardées
+        int dropped = this.dropSuperseded(false);
+        if (kind == Kind.REPLY && dropped == 0) {
+            // Seules des réponses attendent : aucun instantané ne peut les remplacer
+            return true;
+        }
+        dropped += kind == Kind.REPLY ? 0 : 1;
+        if (this._debugWindow != null) {
+            this._debugWindow.addLog("Replacing " + dropped + " waiting messages by a snapshot for slow client "
+                    + this._session.getRemoteAddress(), PluginServerDebugWindow.LogType.INFO);
+        }
+        this.drop(dropped);
+        this._awaitingSnapshot = true;
+        this._snapshotRequest.run();
+        return kind == Kind.REPLY;
+    }
+
+    /**
+     * Annule l'attente d'un instantané qui ne sera pas envoyé (la session
+     * n'est pas, ou plus, suivie), pour que les modifications suivantes ne
+     * soient pas abandonnées
+     */
+    public synchronized void cancelSnapshotRequest() {
+        this._awaitingSnapshot = false;
+    }
+
+    /**
+     * Envoie les messages en attente, un à la fois. L'envoi se fait hors du
+     * verrou, et un callback appelé pendant l'envoi ne fait que libérer la place :
+     * c'est cette boucle qui envoie le message suivant, sans récursion.
+     */
+    private void sendNext() {
+        synchronized (this) {
+            if (this._draining) {
+                return;
+            }
+            this._draining = true;
+        }
+        while (true) {
+            PluginServerFrame frame;
+            synchronized (this) {
+                frame = this._sendingFrame == null ? this.poll() : null;
+                if (frame == null) {
+                    this._draining = false;
+                    return;
+                }
+                if (!this._session.isOpen()) {
+                    this._priorityFrames.clear();
+                    this._frames.clear();
+                    this._snapshotFrames = 0;
+                    this._draining = false;
+                    return;
+                }
+                this._sendingFrame = frame;
+            }
+            try {
+                // Le message est encodé ici, une seule fois par format pour toutes les sessions
+                if (this._wireFormat == PluginServerWireFormat.CBOR) {
+                    byte[] payload = frame.getBinary();
+                    synchronized (this) {
+                        this._sendingSize = payload.length;
+                    }
+                    this._session.getRemote().sendBytes(ByteBuffer.wrap(payload), this);
+                } else {
+                    String payload = frame.getText();
+                    synchronized (this) {
+                        this._sendingSize = payload.length();
+                    }
+                    this._session.getRemote().sendString(payload, this);
+                }
+            } catch (IOException e) {
+                this._logger.warn("Error encoding " + frame.getAction(), e);
+                synchronized (this) {
+                    this._sendingFrame = null;
+                    this.drop(1);
+                }
+                if (this._debugWindow != null) {
+                    this._debugWindow.addLog("Error encoding " + frame.getAction() + ": " + e.getMessage(),
+                            PluginServerDebugWindow.LogType.ERROR);
+                }
+            }
+        }
+    }
+
+    private PluginServerFrame poll() {
+        PluginServerFrame frame = this._priorityFrames.poll();
+        if (frame == null && !this._frames.isEmpty()) {
+            QueuedFrame queuedFrame = this._frames.poll();
+            if (queuedFrame.kind == Kind.SNAPSHOT || queuedFrame.kind == Kind.SNAPSHOT_CHUNK) {
+                this._snapshotFrames--;
+            }
+            frame = queuedFrame.frame;
+        }
+        return frame;
+    }
+
+    @Override
+    public void writeSuccess() {
+        PluginServerFrame frame;
+        int size;
+        synchronized (this) {
+            frame = this._sendingFrame;
+            size = this._sendingSize;
+            this._sendingFrame = null;
+            this._sentFrames++;
+            this._sentBytes += size;
+        }
+        this._sentFramesMetric.increment();
+        this._sentBytesMetric.add(size);
+        this._frameSizeMetric.observe(size);
+        if (this._debugWindow != null && frame != null) {
+            String displayMessage;
+            try {
+                if (this._wireFormat == PluginServerWireFormat.CBOR) {
+                    displayMessage = frame.getAction() + " (binary)";
+                } else {
+                    // Tronquer le message si trop long pour l'affichage
+                    String text = frame.getText();
+                    displayMessage = text.length() > 200 ? text.substring(0, 200) + "..." : text;
+                }
+            } catch (IOException e) {
+                displayMessage = frame.getAction();
+            }
+            this._debugWindow.addLog("Message sent successfully: " + displayMessage + " (size: " + size
+                    + (this._wireFormat == PluginServerWireFormat.CBOR ? " bytes)" : " chars)"),
+                    PluginServerDebugWindow.LogType.SENT);
+        }
+        this.sendNext();
+    }
+
+    @Override
+    public void writeFailed(Throwable cause) {
+        synchronized (this) {
+            this._sendingFrame = null;
+            this.drop(1);
+        }
+        if (this._debugWindow != null) {
+            this._debugWindow.addLog("Error sending message: " + cause.getMessage() + " (session open: "
+                    + this._session.isOpen() + ")", PluginServerDebugWindow.LogType.ERROR);
+        }
+        this.sendNext();
+    }
+
+    /**
+     * Vide la file, quand la session est fermée
+     */
+    public synchronized void clear() {
+        this._priorityFrames.clear();
+        this._frames.clear();
+        this._snapshotFrames = 0;
+    }
+
+    public synchronized int size() {
+        return this._priorityFrames.size() + this._frames.size();
+    }
+
+    public synchronized long getSentFrames() {
+        return this._sentFrames;
+    }
+
+    public synchronized long getSentBytes() {
+        return this._sentBytes;
+    }
+
+    public PluginServerWireFormat getWireFormat() {
+        return this._wireFormat;
+    }
+
+    public synchronized long getDroppedFrames() {
+        return this._droppedFrames;
+    }
+}
@@ -0,0 +1,12 @@
+package io.github.totchi_lagawi.scratchomised_plugin;
+
+/**
+ * Ce que fait une file d'envoi quand un client ne lit pas assez vite ses
+ * messages
+ */
+public enum PluginServerOverflowPolicy {
+    // Remplacer les messages en attente par un instantané à jour
+    DROP_SUPERSEDED,
+    // Déconnecter le client, qui se reconnectera et recevra un instantané
+    DISCONNECT
+}
@@ -0,0 +1,168 @@
+package io.github.totchi_lagawi.scratchomised_plugin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.yaml.snakeyaml.Yaml;
+
+import com.eteks.sweethome3d.model.HomePieceOfFurniture;
+
+/**
+ * Propriétés envoyées aux clients pour un type d'objet (par exemple seulement
+ * id, name et power pour un interrupteur). Seules ces propriétés sont lues et
+ * encodées.
+ *
+ * Les projections sont décrites dans projections.yaml, fourni avec le plugin ;
+ * le fichier indiqué par le réglage projection_file, ou à défaut
+ * ~/.scratchomised/projections.yaml, le remplace s'il existe.
+ */
+public class PluginServerProjection {
+    public static final String RESOURCE = "projections.yaml";
+
+    // Projection utilisée si aucune ne correspond : toutes les propriétés
+    public static final PluginServerProjection ALL = new PluginServerProjection("all",
+            Collections.<FurnitureClassificationRule>emptyList(), (1 << PluginServerObjectState.PROPERTIES.length) - 1);
+
+    private String _type;
+    private List<FurnitureClassificationRule> _rules;
+    // Propriétés envoyées, sous forme de masque (bit i pour PluginServerObjectState.PROPERTIES[i])
+    private int _properties;
+
+    /**
+     * @param rules      les règles dont une doit correspondre au meuble, ou une
+     *                   liste vide pour tous les meubles
+     * @param properties le masque des propriétés envoyées
+     */
+    public PluginServerProjection(String type, List<FurnitureClassificationRule> rules, int properties) {
+        this._type = type;
+        this._rules = rules;
+        // L'identifiant est toujours envoyé : les clients s'en servent comme clé
+        this._properties = properties | (1 << PluginServerObjectState.getPropertyIndex("id"));
+    }
+
+    public String getType() {
+        return this._type;
+    }
+
+    public int getProperties() {
+        return this._properties;
+    }
+
+    /**
+     * Renvoie une clé qui ne dépend que de la description de la projection : elle
+     * est la même d'un démarrage à l'autre tant que projections.yaml ne change pas
+     */
+    public int getKey() {
+        int key = this._type.hashCode() * 31 + this._properties;
+        for (FurnitureClassificationRule rule : this._rules) {
+            key = (key * 31 + rule.getTarget().name().hashCode()) * 31 + rule.getPattern().hashCode();
+        }
+        return key;
+    }
+
+    public boolean matches(HomePieceOfFurniture furniture) {
+        if (this._rules.isEmpty()) {
+            return true;
+        }
+        for (FurnitureClassificationRule rule : this._rules) {
+            if (rule.matches(furniture)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Charge les projections, depuis le fichier des réglages s'il existe ou
+     * sinon depuis celui du plugin
+     */
+    public static List<PluginServerProjection> load(PluginServerSettings settings) {
+        File file = settings.projection_file != null ? new File(settings.projection_file)
+                : new File(System.getProperty("user.home"), ".scratchomised" + File.separator + RESOURCE);
+        if (file.isFile()) {
+            try (InputStream file_stream = new FileInputStream(file)) {
+                return parse(file_stream);
+            } catch (Exception ex) {
+                // Un fichier invalide ne doit pas empêcher le serveur de démarrer
+                ex.printStackTrace();
+            }
+        }
+        return loadDefault();
+    }
+
+    /**
+     * Charge les projections fournies avec le plugin
+     */
+    public static List<PluginServerProjection> loadDefault() {
+        try (InputStream resource_stream = PluginServerProjection.class.getResourceAsStream(RESOURCE)) {
+            if (resource_stream != null) {
+                return parse(resource_stream);
+            }
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+        return Collections.singletonList(ALL);
+    }
+
+    /**
+     * Lit une liste de projections :
+     *
+     * <pre>
+     * projections:
+     *   - type: switch
+     *     match:
+     *       catalog_id: switch|interrupteur
+     *     properties: [id, name, visible]
+     * </pre>
+     *
+     * Les clés de match sont class_name, catalog_id et name (voir
+     * FurnitureClassificationRule.Target).
+     */
+    private static List<PluginServerProjection> parse(InputStream stream) {
+        Object document = new Yaml().load(stream);
+        if (!(document instanceof Map) || !(((Map<?, ?>) document).get("projections") instanceof List)) {
+            throw new IllegalArgumentException("Expected a list of projections");
+        }
+        ArrayList<PluginServerProjection> projections = new ArrayList<PluginServerProjection>();
+        for (Object entry : (List<?>) ((Map<?, ?>) document).get("projections")) {
+            if (!(entry instanceof Map)) {
+                throw new IllegalArgumentException("Invalid projection: " + entry);
+            }
+            Map<?, ?> projection = (Map<?, ?>) entry;
+
+            ArrayList<FurnitureClassificationRule> rules = new ArrayList<FurnitureClassificationRule>();
+            if (projection.get("match") instanceof Map) {
+                for (Map.Entry<?, ?> match : ((Map<?, ?>) projection.get("match")).entrySet()) {
+                    rules.add(new FurnitureClassificationRule(
+                            FurnitureClassificationRule.Target.valueOf(String.valueOf(match.getKey()).toUpperCase()),
+                            String.valueOf(match.getValue())));
+                }
+            }
+
+            int properties = 0;
+            if (!(projection.get("properties") instanceof List)) {
+                throw new IllegalArgumentException("Missing properties for projection " + projection.get("type"));
+            }
+            for (Object property : (List<?>) projection.get("properties")) {
+                int index = PluginServerObjectState.getPropertyIndex(String.valueOf(property));
+                if (index < 0) {
+                    throw new IllegalArgumentException("Unknown property " + property + " in projection "
+                            + projection.get("type"));
+                }
+                properties |= 1 << index;
+            }
+            projections.add(new PluginServerProjection(String.valueOf(projection.get("type")), rules, properties));
+        }
+        return projections;
+    }
+
+    @Override
+    public String toString() {
+        return this._type;
+    }
+}
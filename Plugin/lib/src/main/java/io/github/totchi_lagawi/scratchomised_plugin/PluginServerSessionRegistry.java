@@ -0,0 +1,137 @@
+package io.github.totchi_lagawi.scratchomised_plugin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sessions WebSocket ouvertes sur le serveur. Une session est enregistrée à la
+ * connexion et retirée à la fermeture de la socket : un clic n'est donc envoyé
+ * qu'aux sessions réellement connectées.
+ */
+public class PluginServerSessionRegistry {
+    private CopyOnWriteArrayList<PluginServerWebSocketEndpoint> _sessions = new CopyOnWriteArrayList<>();
+    private PluginServerUpdateScheduler _updateScheduler;
+    private PluginServerDebugWindow _debugWindow;
+    private AtomicLong _totalSessions = new AtomicLong();
+    private AtomicLong _clicks = new AtomicLong();
+    private PluginServerMetrics.Counter _sessionsMetric = PluginServerMetrics.getInstance().counter(
+            "scratchomised_sessions_opened_total", "WebSocket sessions opened");
+    private PluginServerMetrics.Counter _clicksMetric = PluginServerMetrics.getInstance().counter(
+            "scratchomised_clicks_total", "Clicks on switches sent to the clients");
+
+    public PluginServerSessionRegistry(PluginServerUpdateScheduler updateScheduler, PluginServerDebugWindow debugWindow) {
+        this._updateScheduler = updateScheduler;
+        this._debugWindow = debugWindow;
+    }
+
+    /**
+     * Enregistre une session qui vient de se connecter
+     */
+    public void register(PluginServerWebSocketEndpoint session) {
+        if (this._sessions.addIfAbsent(session)) {
+            this._totalSessions.incrementAndGet();
+            this._sessionsMetric.increment();
+        }
+    }
+
+    /**
+     * Retire une session fermée. Peut être appelé plusieurs fois.
+     *
+     * @return whether the session was registered
+     */
+    public boolean unregister(PluginServerWebSocketEndpoint session) {
+        return this._sessions.remove(session);
+    }
+
+    /**
+     * Renvoie le nombre de sessions ouvertes
+     */
+    public int getSessionCount() {
+        return this._sessions.size();
+    }
+
+    /**
+     * Renvoie le nombre de sessions ouvertes depuis le démarrage du serveur
+     */
+    public long getTotalSessions() {
+        return this._totalSessions.get();
+    }
+
+    /**
+     * Renvoie le nombre total de messages en attente d'envoi
+     */
+    public int getQueuedFrames() {
+        int queuedFrames = 0;
+        for (PluginServerWebSocketEndpoint session : this._sessions) {
+            queuedFrames += session.getQueuedFrames();
+        }
+        return queuedFrames;
+    }
+
+    /**
+     * Renvoie les sessions ouvertes (copie non modifiable)
+     */
+    public java.util.List<PluginServerWebSocketEndpoint> getSessions() {
+        return Collections.unmodifiableList(new ArrayList<PluginServerWebSocketEndpoint>(this._sessions));
+    }
+
+    /**
+     * Envoie un message object_clicked à toutes les sessions ouvertes. Le clic est
+     * reçu sur le thread de l'interface : le message est encodé une seule fois,
+     * sur le thread du planificateur, puis partagé par les sessions.
+     */
+    public void sendClickMessage(String objectId) {
+        this._clicks.incrementAndGet();
+        this._clicksMetric.increment();
+        this._updateScheduler.execute(() -> this.queueClickMessage(objectId));
+    }
+
+    /**
+     * Ajoute le message object_clicked à la file de chaque session ouverte
+     *
+     * @return the number of sessions the message was queued for
+     */
+    int queueClickMessage(String objectId) {
+        Hashtable<String, Object> args = new Hashtable<>();
+        args.put("object_id", objectId);
+        PluginServerFrame frame = new PluginServerFrame(new ScratchomisedRequest("object_clicked", args));
+        int queued = 0;
+        for (PluginServerWebSocketEndpoint session : this._sessions) {
+            if (session.sendFrame(frame, PluginServerOutboundQueue.Kind.PRIORITY)) {
+                queued++;
+            }
+        }
+        if (this._debugWindow != null) {
+            this._debugWindow.addLog("Queued object_clicked message for: " + objectId + " (" + queued + "/"
+                    + this._sessions.size() + " sessions)", PluginServerDebugWindow.LogType.INFO);
+        }
+        return queued;
+    }
+
+    /**
+     * Affiche dans la fenêtre de debug le nombre de sessions et les statistiques
+     * d'envoi de chacune
+     */
+    public void reportStatistics() {
+        if (this._debugWindow == null) {
+            return;
+        }
+        ArrayList<String> statistics = new ArrayList<String>();
+        statistics.add(this._sessions.size() + " session(s) connected, " + this._totalSessions.get()
+                + " since start, " + this._clicks.get() + " click(s)");
+        for (PluginServerWebSocketEndpoint session : this._sessions) {
+            statistics.add(session.getStatistics());
+        }
+        this._debugWindow.setSessionStatistics(statistics);
+    }
+
+    /**
+     * Oublie toutes les sessions, à l'arrêt du serveur
+     */
+    public void clear() {
+        this._sessions.clear();
+    }
+}
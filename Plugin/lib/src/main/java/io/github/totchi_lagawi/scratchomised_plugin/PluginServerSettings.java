@@ -0,0 +1,110 @@
+package io.github.totchi_lagawi.scratchomised_plugin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import org.yaml.snakeyaml.Yaml;
+
+/**
+ * Réglages du serveur, utilisés pour parser type-safely le fichier YAML de
+ * réglages. Les valeurs par défaut sont celles des champs ; elles peuvent être
+ * surchargées par le fichier indiqué par la propriété système
+ * "scratchomised.settings", ou à défaut par ~/.scratchomised/settings.yaml
+ */
+public class PluginServerSettings {
+    public static final String SETTINGS_PROPERTY = "scratchomised.settings";
+
+    // Port d'écoute du serveur
+    public int port = 55125;
+
+    // Adresse d'écoute (par exemple 127.0.0.1 pour n'accepter que les clients
+    // locaux), ou null pour toutes les interfaces
+    public String bind_address = null;
+
+    // Nombre minimal et maximal de threads de Jetty
+    public int min_threads = 8;
+    public int max_threads = 200;
+
+    // Nombre de threads acceptant les connexions et surveillant les sockets, ou
+    // -1 pour laisser Jetty choisir selon le nombre de processeurs
+    public int acceptors = -1;
+    public int selectors = -1;
+
+    // Délai (en millisecondes) après lequel une connexion HTTP inactive est fermée
+    public long idle_timeout = 30000;
+
+    // Délai (en millisecondes) après lequel un WebSocket inactif est fermé, ou 0
+    // pour ne jamais le fermer
+    public long websocket_idle_timeout = 0;
+
+    // Durée pendant laquelle les modifications des objets sont regroupées avant
+    // d'être envoyées (en millisecondes)
+    public int flush_interval = 30;
+
+    // Nombre de lots de modifications gardés pour les clients qui se reconnectent
+    // (resume) ; au-delà, ils reçoivent un instantané complet
+    public int change_log_size = 128;
+
+    // Fichier décrivant les propriétés envoyées pour chaque type d'objet (voir
+    // projections.yaml), ou null pour ~/.scratchomised/projections.yaml s'il existe
+    public String projection_file = null;
+
+    // Nombre maximal d'objets par message lors de l'envoi de tous les objets ; au-delà,
+    // ils sont envoyés en plusieurs messages update_objects_chunk
+    public int snapshot_chunk_size = 250;
+
+    // Nombre maximal de messages en attente d'envoi pour chaque client
+    public int outbound_queue_size = 256;
+
+    // Ce qui est fait quand un client est trop lent : DROP_SUPERSEDED remplace
+    // les messages en attente par un instantané, DISCONNECT déconnecte le client
+    public PluginServerOverflowPolicy overflow_policy = PluginServerOverflowPolicy.DROP_SUPERSEDED;
+
+    // Compression des messages (permessage-deflate), si le client la propose
+    public boolean compression = true;
+
+    // Taille (en octets) en dessous de laquelle un message n'est pas compressé
+    public int compression_threshold = 256;
+
+    // Niveau des logs du serveur et de Jetty (ALL, DEBUG, INFO, WARN ou OFF)
+    public PluginServerLogLevel log_level = PluginServerLogLevel.INFO;
+
+    // Nombre maximal de lignes de log en attente d'écriture ; au-delà, elles sont perdues
+    public int log_queue_size = 8192;
+
+    // Fichier où les logs sont aussi écrits, ou null pour n'écrire que dans la console
+    public String log_file = null;
+
+    // Taille (en octets) à partir de laquelle un nouveau fichier de logs est commencé
+    public long log_file_size = 10 * 1024 * 1024;
+
+    // Nombre de fichiers de logs gardés
+    public int log_file_count = 5;
+
+    /**
+     * Charge les réglages, en gardant les valeurs par défaut si le fichier
+     * n'existe pas ou est invalide
+     * 
+     * @return the settings
+     */
+    public static PluginServerSettings load() {
+        String path = System.getProperty(SETTINGS_PROPERTY);
+        File file = path != null ? new File(path)
+                : new File(System.getProperty("user.home"), ".scratchomised" + File.separator + "settings.yaml");
+        if (!file.isFile()) {
+            return new PluginServerSettings();
+        }
+
+        try (InputStream file_stream = new FileInputStream(file)) {
+            PluginServerSettings settings = new Yaml().loadAs(file_stream, PluginServerSettings.class);
+            if (settings != null) {
+                return settings;
+            }
+        } catch (Exception ex) {
+            // Un fichier invalide ne doit pas empêcher le serveur de démarrer
+            ex.printStackTrace();
+        }
+        return new PluginServerSettings();
+    }
+}
@@ -0,0 +1,149 @@
+package io.github.totchi_lagawi.scratchomised_plugin;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Objets et propriétés qu'un client veut recevoir, par identifiant, par classe
+ * et par nom de propriété. Sans abonnement, le client reçoit tout.
+ *
+ * Un abonnement n'est jamais modifié : subscribe et unsubscribe en créent un
+ * nouveau, qui peut donc être lu sans verrou par le thread du planificateur.
+ * Deux sessions ayant le même abonnement partagent les mêmes messages.
+ */
+public class PluginServerSubscription {
+    public static final PluginServerSubscription ALL = new PluginServerSubscription(
+            Collections.<String>emptySet(), Collections.<String>emptySet(), Collections.<String>emptySet());
+
+    // Propriétés toujours envoyées, nécessaires aux menus de Scratch
+    private static final Set<String> REQUIRED_PROPERTIES = new HashSet<String>(
+            Arrays.asList("id", "name", "__scratchomisedClasses"));
+
+    private Set<String> _objects;
+    private Set<String> _classes;
+    private Set<String> _properties;
+
+    private PluginServerSubscription(Set<String> objects, Set<String> classes, Set<String> properties) {
+        this._objects = objects;
+        this._classes = classes;
+        this._properties = properties;
+    }
+
+    /**
+     * Indique si le client reçoit tous les objets et toutes les propriétés
+     */
+    public boolean isAll() {
+        return this._objects.isEmpty() && this._classes.isEmpty() && this._properties.isEmpty();
+    }
+
+    /**
+     * Renvoie un abonnement incluant aussi ces objets, classes et propriétés
+     */
+    public PluginServerSubscription with(Collection<String> objects, Collection<String> classes,
+            Collection<String> properties) {
+        return new PluginServerSubscription(union(this._objects, objects), union(this._classes, classes),
+                union(this._properties, properties));
+    }
+
+    /**
+     * Renvoie un abonnement sans ces objets, classes et propriétés
+     */
+    public PluginServerSubscription without(Collection<String> objects, Collection<String> classes,
+            Collection<String> properties) {
+        return new PluginServerSubscription(difference(this._objects, objects), difference(this._classes, classes),
+                difference(this._properties, properties));
+    }
+
+    /**
+     * Indique si ces objets, classes et propriétés peuvent être retirés de
+     * l'abonnement. Ils doivent en faire partie : un ensemble vide voulant dire
+     * "tout", rien ne peut en être retiré. Il doit aussi rester au moins un objet
+     * ou une classe, et une propriété, sinon l'abonnement redeviendrait ALL.
+     */
+    public boolean canRemove(Collection<String> objects, Collection<String> classes, Collection<String> properties) {
+        if (!contains(this._objects, objects) || !contains(this._classes, classes)
+                || !contains(this._properties, properties)) {
+            return false;
+        }
+        PluginServerSubscription subscription = this.without(objects, classes, properties);
+        boolean hadObjects = !this._objects.isEmpty() || !this._classes.isEmpty();
+        boolean hasObjects = !subscription._objects.isEmpty() || !subscription._classes.isEmpty();
+        return (hasObjects || !hadObjects) && (!subscription._properties.isEmpty() || this._properties.isEmpty());
+    }
+
+    /**
+     * Indique si un objet est concerné par l'abonnement
+     */
+    public boolean matchesObject(PluginServerObjectState object) {
+        if (object == null) {
+            return false;
+        }
+        if (this._objects.isEmpty() && this._classes.isEmpty()) {
+            return true;
+        }
+        if (this._objects.contains(object.getId())) {
+            return true;
+        }
+        for (String name : object.getClasses()) {
+            // Le nom complet ou le nom simple de la classe peut être utilisé
+            if (this._classes.contains(name)
+                    || this._classes.contains(name.substring(name.lastIndexOf('.') + 1))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Indique si une propriété est concernée par l'abonnement
+     */
+    public boolean matchesProperty(String property) {
+        return this._properties.isEmpty() || this._properties.contains(property)
+                || REQUIRED_PROPERTIES.contains(property);
+    }
+
+    private static Set<String> union(Set<String> set, Collection<String> values) {
+        if (values == null || values.isEmpty()) {
+            return set;
+        }
+        HashSet<String> result = new HashSet<String>(set);
+        result.addAll(values);
+        return Collections.unmodifiableSet(result);
+    }
+
+    private static boolean contains(Set<String> set, Collection<String> values) {
+        return values == null || set.containsAll(values);
+    }
+
+    private static Set<String> difference(Set<String> set, Collection<String> values) {
+        if (values == null || values.isEmpty()) {
+            return set;
+        }
+        HashSet<String> result = new HashSet<String>(set);
+        result.removeAll(values);
+        return Collections.unmodifiableSet(result);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof PluginServerSubscription)) {
+            return false;
+        }
+        PluginServerSubscription subscription = (PluginServerSubscription) other;
+        return this._objects.equals(subscription._objects) && this._classes.equals(subscription._classes)
+                && this._properties.equals(subscription._properties);
+    }
+
+    @Override
+    public int hashCode() {
+        return (this._objects.hashCode() * 31 + this._classes.hashCode()) * 31 + this._properties.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return isAll() ? "all" : "objects=" + this._objects + ", classes=" + this._classes + ", properties=" + this._properties;
+    }
+}
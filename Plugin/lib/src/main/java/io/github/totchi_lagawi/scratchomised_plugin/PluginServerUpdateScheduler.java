@@ -0,0 +1,135 @@
+package io.github.totchi_lagawi.scratchomised_plugin;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Planifie l'envoi groupé des modifications des objets : les sessions marquent
+ * les objets modifiés, et les envoient au plus une fois par intervalle.
+ * Son thread unique est aussi celui qui classe, encode et envoie les messages,
+ * pour que le thread de l'interface ne fasse jamais ce travail.
+ * Mesure aussi le débit et la latence, affichés dans la fenêtre de debug.
+ */
+public class PluginServerUpdateScheduler {
+    private ScheduledExecutorService _executor;
+    private PluginServerDebugWindow _debugWindow;
+    private int _flushInterval;
+    private AtomicLong _events = new AtomicLong();
+    private AtomicLong _messages = new AtomicLong();
+    private AtomicLong _flushes = new AtomicLong();
+    private AtomicLong _totalLatency = new AtomicLong();
+    private AtomicLong _maxLatency = new AtomicLong();
+    private AtomicLong _allocatedBytes = new AtomicLong();
+    private PluginServerMetrics.Counter _eventsMetric = PluginServerMetrics.getInstance().counter(
+            "scratchomised_model_events_total", "Changes of the home received from SweetHome3D");
+    private PluginServerMetrics.Histogram _flushLatencyMetric = PluginServerMetrics.getInstance().histogram(
+            "scratchomised_flush_latency_seconds", "Time between a change of the home and its sending to the clients",
+            PluginServerMetrics.LATENCY_BUCKETS);
+
+    public PluginServerUpdateScheduler(int flushInterval, PluginServerDebugWindow debugWindow) {
+        this._flushInterval = Math.max(0, flushInterval);
+        this._debugWindow = debugWindow;
+        this._executor = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+            Thread thread = new Thread(runnable, "Scratchomised - Update scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this._executor.scheduleAtFixedRate(this::reportStatistics, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Planifie un envoi à la fin de l'intervalle de regroupement
+     */
+    public void schedule(Runnable flush) {
+        if (!this._executor.isShutdown()) {
+            this._executor.schedule(flush, this._flushInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Enregistre un envoi groupé
+     *
+     * @param events   le nombre de modifications regroupées dans cet envoi
+     * @param messages le nombre de sessions auxquelles un message a été envoyé
+     * @param latency  le temps écoulé depuis la première modification (en
+     *                 nanosecondes)
+     * @param allocatedBytes la mémoire allouée par l'envoi (en octets), ou une
+     *                 valeur négative si elle ne peut pas être mesurée
+     */
+    public void recordFlush(int events, int messages, long latency, long allocatedBytes) {
+        this._events.addAndGet(events);
+        this._eventsMetric.add(events);
+        if (allocatedBytes > 0) {
+            this._allocatedBytes.addAndGet(allocatedBytes);
+        }
+        if (messages > 0) {
+            this._messages.addAndGet(messages);
+            this._flushes.incrementAndGet();
+            this._totalLatency.addAndGet(latency);
+            this._maxLatency.accumulateAndGet(latency, Math::max);
+            this._flushLatencyMetric.observeNanos(latency);
+        }
+    }
+
+    /**
+     * Exécute une tâche dès que possible sur le thread du planificateur
+     */
+    public void execute(Runnable task) {
+        if (!this._executor.isShutdown()) {
+            this._executor.execute(task);
+        }
+    }
+
+    /**
+     * Exécute une tâche à intervalle régulier sur le thread du planificateur
+     */
+    public void repeat(Runnable task, long period) {
+        if (!this._executor.isShutdown()) {
+            this._executor.scheduleAtFixedRate(task, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Renvoie la mémoire allouée jusqu'ici par le thread courant (en octets), ou
+     * -1 si la JVM ne permet pas de la mesurer
+     */
+    public static long getAllocatedBytes() {
+        java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+            if (allocationBean.isThreadAllocatedMemorySupported() && allocationBean.isThreadAllocatedMemoryEnabled()) {
+                return allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    public int getFlushInterval() {
+        return this._flushInterval;
+    }
+
+    public void shutdown() {
+        this._executor.shutdownNow();
+    }
+
+    /**
+     * Affiche dans la fenêtre de debug les statistiques de la dernière seconde
+     */
+    private void reportStatistics() {
+        long events = this._events.getAndSet(0);
+        long messages = this._messages.getAndSet(0);
+        long totalLatency = this._totalLatency.getAndSet(0);
+        long maxLatency = this._maxLatency.getAndSet(0);
+        long allocatedBytes = this._allocatedBytes.getAndSet(0);
+        if (this._debugWindow == null) {
+            return;
+        }
+        long flushes = this._flushes.getAndSet(0);
+        double averageLatency = flushes > 0 ? totalLatency / (double) flushes / 1000000.0 : 0.0;
+        this._debugWindow.setStatistics(String.format("%d events/s, %d messages/s, latency %.1f ms (max %.1f ms), %d B/event allocated",
+                events, messages, averageLatency, maxLatency / 1000000.0, events > 0 ? allocatedBytes / events : 0));
+    }
+}
@@ -4,6 +4,8 @@ import org.eclipse.jetty.websocket.servlet.ServletUpgradeRequest;
 import org.eclipse.jetty.websocket.servlet.ServletUpgradeResponse;
 import org.eclipse.jetty.websocket.servlet.WebSocketCreator;
 
+import javax.swing.undo.UndoableEditSupport;
+
 import com.eteks.sweethome3d.model.Home;
 import com.eteks.sweethome3d.viewcontroller.HomeController;
 
@@ -12,12 +14,22 @@ public class PluginServerWebSocketCreator implements WebSocketCreator {
     private Home _home;
     private PluginServerDebugWindow _debugWindow;
     private HomeController _homeController;
+    private UndoableEditSupport _undoableEditSupport;
+    private PluginServerHomeObserver _homeObserver;
+    private PluginServerSessionRegistry _sessionRegistry;
+    private FurnitureIndex _furnitureIndex;
+    private PluginServerSettings _settings;
 
-    public PluginServerWebSocketCreator(LanguageManager languageManager, Home home, PluginServerDebugWindow debugWindow, HomeController homeController) {
+    public PluginServerWebSocketCreator(LanguageManager languageManager, Home home, PluginServerDebugWindow debugWindow, HomeController homeController, UndoableEditSupport undoableEditSupport, PluginServerHomeObserver homeObserver, PluginServerSessionRegistry sessionRegistry, FurnitureIndex furnitureIndex, PluginServerSettings settings) {
         this._languageManager = languageManager;
         this._home = home;
         this._debugWindow = debugWindow;
         this._homeController = homeController;
+        this._undoableEditSupport = undoableEditSupport;
+        this._homeObserver = homeObserver;
+        this._sessionRegistry = sessionRegistry;
+        this._furnitureIndex = furnitureIndex;
+        this._settings = settings;
     }
 
     @Override
@@ -30,10 +42,15 @@ public class PluginServerWebSocketCreator implements WebSocketCreator {
         }
         
         // Accepter la connexion dans tous les cas
-        PluginServerWebSocketEndpoint endpoint = new PluginServerWebSocketEndpoint(this._languageManager, this._home, this._debugWindow, this._homeController);
+        PluginServerWebSocketEndpoint endpoint = new PluginServerWebSocketEndpoint(this._languageManager, this._home, this._debugWindow, this._homeController, this._undoableEditSupport, this._homeObserver, this._sessionRegistry, this._furnitureIndex, this._settings);
         
-        // Si le protocole "scratchomised" est présent, l'accepter explicitement
-        if (req.hasSubProtocol("scratchomised")) {
+        // Le protocole binaire est préféré quand le client le propose, sinon JSON
+        if (req.hasSubProtocol(PluginServerWireFormat.CBOR.getSubProtocol())) {
+            resp.setAcceptedSubProtocol(PluginServerWireFormat.CBOR.getSubProtocol());
+            if (this._debugWindow != null) {
+                this._debugWindow.addLog("Accepted connection with scratchomised.bin protocol (binary messages)", PluginServerDebugWindow.LogType.INFO);
+            }
+        } else if (req.hasSubProtocol("scratchomised")) {
             resp.setAcceptedSubProtocol("scratchomised");
             if (this._debugWindow != null) {
                 this._debugWindow.addLog("Accepted connection with scratchomised protocol", PluginServerDebugWindow.LogType.INFO);
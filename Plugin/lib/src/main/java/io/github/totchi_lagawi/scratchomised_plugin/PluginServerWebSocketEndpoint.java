@@ -1,41 +1,79 @@
 package io.github.totchi_lagawi.scratchomised_plugin;
 
-import com.eteks.sweethome3d.model.CollectionEvent;
-import com.eteks.sweethome3d.model.CollectionListener;
 import com.eteks.sweethome3d.model.Home;
 import com.eteks.sweethome3d.model.HomePieceOfFurniture;
-import com.eteks.sweethome3d.model.CollectionEvent.Type;
 import com.fasterxml.jackson.jr.ob.JSON;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
-import java.beans.PropertyChangeEvent;
-import java.beans.PropertyChangeListener;
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
 
+import javax.swing.SwingUtilities;
+import javax.swing.undo.UndoableEditSupport;
+
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
 import org.eclipse.jetty.websocket.api.Session;
 import org.eclipse.jetty.websocket.api.WebSocketListener;
+import org.eclipse.jetty.websocket.api.extensions.Extension;
+import org.eclipse.jetty.websocket.common.WebSocketSession;
+import org.eclipse.jetty.websocket.common.extensions.ExtensionStack;
 
 import com.eteks.sweethome3d.viewcontroller.HomeController;
 
-public class PluginServerWebSocketEndpoint
-        implements WebSocketListener, CollectionListener<HomePieceOfFurniture>, PropertyChangeListener {
+public class PluginServerWebSocketEndpoint implements WebSocketListener {
+    private static final String[] ACTIONS = { "client_ready", "resume", "test_ack", "welcome_ack", "define_property",
+            "define_properties", "subscribe", "unsubscribe" };
+    private static final Map<String, PluginServerMetrics.Counter> RECEIVED_MESSAGES = new HashMap<>();
+    private static final PluginServerMetrics.Counter RECEIVED_UNKNOWN_MESSAGES = receivedMessagesCounter("unknown");
+    static {
+        for (String action : ACTIONS) {
+            RECEIVED_MESSAGES.put(action, receivedMessagesCounter(action));
+        }
+    }
+
     private Home _home;
     private LanguageManager _languageManager;
     private Session _session;
     private JSON _json;
     private PluginServerDebugWindow _debugWindow;
     private boolean _clientReady = false;
+    // Observateur du plan partagé par toutes les sessions du serveur
+    private PluginServerHomeObserver _homeObserver;
+    // Sessions ouvertes du serveur, auxquelles les clics sont envoyés
+    private PluginServerSessionRegistry _sessionRegistry;
+    private FurnitureIndex _furnitureIndex;
+    private UndoableEditSupport _undoableEditSupport;
+    private PluginServerSettings _settings;
+    // Logger asynchrone du serveur : les threads de Jetty n'écrivent jamais eux-mêmes dans la console
+    private Logger _logger = Log.getLogger(PluginServerWebSocketEndpoint.class);
+    // Les messages sont envoyés de manière asynchrone, pour ne jamais bloquer l'appelant
+    private PluginServerOutboundQueue _outboundQueue;
+    // Objets et propriétés que le client veut recevoir, remplacé à chaque subscribe/unsubscribe
+    private volatile PluginServerSubscription _subscription = PluginServerSubscription.ALL;
+    // Extension de compression de la connexion, si le client l'a acceptée
+    private PluginServerDeflateExtension _deflateExtension;
+    // Regroupe les define_property reçus pendant l'intervalle de regroupement
+    private PluginServerCommandCoalescer _commandCoalescer;
 
-    public PluginServerWebSocketEndpoint(LanguageManager languageManager, Home home, PluginServerDebugWindow debugWindow, HomeController homeController) {
+    private static PluginServerMetrics.Counter receivedMessagesCounter(String action) {
+        return PluginServerMetrics.getInstance().counter("scratchomised_messages_received_total",
+                "Messages received from clients", "action", action);
+    }
+
+    public PluginServerWebSocketEndpoint(LanguageManager languageManager, Home home, PluginServerDebugWindow debugWindow, HomeController homeController, UndoableEditSupport undoableEditSupport, PluginServerHomeObserver homeObserver, PluginServerSessionRegistry sessionRegistry, FurnitureIndex furnitureIndex, PluginServerSettings settings) {
         this._home = home;
         this._languageManager = languageManager;
         this._debugWindow = debugWindow;
+        this._homeObserver = homeObserver;
+        this._sessionRegistry = sessionRegistry;
+        this._furnitureIndex = furnitureIndex;
+        this._undoableEditSupport = undoableEditSupport;
+        this._settings = settings;
+        this._commandCoalescer = new PluginServerCommandCoalescer(homeObserver, debugWindow);
     }
 
     @Override
@@ -44,19 +82,18 @@ public class PluginServerWebSocketEndpoint
             ? this._session.getRemoteAddress().toString() 
             : "unknown";
         String message = address + " disconnected (reason : " + reason + ")";
-        System.out.println(this._languageManager.getString("log_prefix") + message);
+        this._logger.info(message);
         if (this._debugWindow != null) {
             this._debugWindow.addLog(message, PluginServerDebugWindow.LogType.CONNECTION);
         }
-        if (this._home != null) {
-            for (HomePieceOfFurniture furniture : this._home.getFurniture()) {
-                furniture.removePropertyChangeListener(this);
-            }
+        // La session ne reçoit plus ni les modifications, ni les clics
+        this._sessionRegistry.unregister(this);
+        this._homeObserver.removeSession(this);
+        // Les modifications déjà reçues sont tout de même appliquées
+        this._commandCoalescer.flush();
+        if (this._outboundQueue != null) {
+            this._outboundQueue.clear();
         }
-        
-        // Désenregistrer ce endpoint des messages de clic
-        // Note: On ne peut pas désenregistrer directement le callback lambda, donc on le laisse enregistré
-        // Le callback vérifiera si la session est ouverte avant d'envoyer
         this._clientReady = false;
     }
 
@@ -64,26 +101,23 @@ public class PluginServerWebSocketEndpoint
     public void onWebSocketConnect(Session session) {
         this._json = new JSON();
         this._session = session;
+        // Le format des messages dépend du sous-protocole accepté lors de la connexion
+        PluginServerWireFormat wireFormat = PluginServerWireFormat.fromSubProtocol(
+                session.getUpgradeResponse().getAcceptedSubProtocol());
+        this._outboundQueue = new PluginServerOutboundQueue(session, wireFormat, this._settings.outbound_queue_size,
+                this._settings.overflow_policy, () -> this._homeObserver.requestSnapshot(this), this._debugWindow);
+        this._deflateExtension = findDeflateExtension(session);
         String address = (session != null && session.getRemoteAddress() != null) 
             ? session.getRemoteAddress().toString() 
             : "unknown";
         String message = address + " connected";
-        System.out.println(this._languageManager.getString("log_prefix") + message);
+        this._logger.info(message);
         if (this._debugWindow != null) {
             this._debugWindow.addLog(message, PluginServerDebugWindow.LogType.CONNECTION);
         }
-        if (this._home != null) {
-            this._home.addFurnitureListener(this);
 
-            for (HomePieceOfFurniture furniture : this._home.getFurniture()) {
-                furniture.addPropertyChangeListener(this);
-            }
-        }
-        
-        // Enregistrer ce endpoint pour recevoir les messages de clic
-        ClickMessageManager.getInstance().registerCallback((objectId) -> {
-            this.sendObjectClicked(objectId);
-        });
+        // Enregistrer ce endpoint pour recevoir les messages de clic, jusqu'à sa fermeture
+        this._sessionRegistry.register(this);
 
         // Ne pas envoyer de message immédiatement - attendre que le client envoie d'abord client_ready
         // Cela évite les conflits et permet de s'assurer que la connexion est stable
@@ -98,15 +132,30 @@ public class PluginServerWebSocketEndpoint
             ? this._session.getRemoteAddress().toString() 
             : "unknown";
         String message = "error in connection to " + address + " : " + cause.getClass().getCanonicalName();
-        System.out.println(this._languageManager.getString("log_prefix") + message);
+        // La pile d'appels est écrite dans le fichier de logs, s'il y en a un
+        this._logger.warn(message, cause);
         if (this._debugWindow != null) {
             this._debugWindow.addLog(message + " - " + cause.getMessage(), PluginServerDebugWindow.LogType.ERROR);
         }
-        cause.printStackTrace();
     }
 
     @Override
     public void onWebSocketBinary(byte[] payload, int offset, int len) {
+        // Messages des clients ayant choisi le sous-protocole scratchomised.bin
+        ScratchomisedRequest request = new ScratchomisedRequest();
+        try {
+            request = PluginServerFrame.decode(payload, offset, len);
+        } catch (IOException e) {
+            this._logger.warn("Error parsing binary message", e);
+            if (this._debugWindow != null) {
+                this._debugWindow.addLog("Error parsing binary message: " + e.getMessage(), PluginServerDebugWindow.LogType.ERROR);
+            }
+        }
+        if (this._debugWindow != null) {
+            this._debugWindow.addLog("Binary message received: " + request.action + " (size: " + len + " bytes)",
+                    PluginServerDebugWindow.LogType.RECEIVED);
+        }
+        this.handleRequest(request);
     }
 
     @Override
@@ -118,21 +167,42 @@ public class PluginServerWebSocketEndpoint
         try {
             request = this._json.beanFrom(ScratchomisedRequest.class, message);
         } catch (IOException e) {
-            e.printStackTrace();
+            this._logger.warn("Error parsing message", e);
             if (this._debugWindow != null) {
                 this._debugWindow.addLog("Error parsing message: " + e.getMessage(), PluginServerDebugWindow.LogType.ERROR);
             }
         }
+        this.handleRequest(request);
+    }
 
+    private void handleRequest(ScratchomisedRequest request) {
+        if (request == null || request.action == null) {
+            return;
+        }
+        // Les actions inconnues sont regroupées, pour ne pas créer une métrique par valeur reçue
+        RECEIVED_MESSAGES.getOrDefault(request.action, RECEIVED_UNKNOWN_MESSAGES).increment();
         switch (request.action) {
             case "client_ready":
                 if (this._debugWindow != null) {
                     this._debugWindow.addLog("Client is ready, sending objects now", PluginServerDebugWindow.LogType.INFO);
                 }
                 this._clientReady = true;
-                // Envoyer les objets maintenant que le client est prêt
+                // Envoyer les objets maintenant que le client est prêt, sauf s'il a déjà
+                // ceux de la version actuelle
                 if (this._session != null && this._session.isOpen()) {
-                    this.updateObjects();
+                    Object version = request.args != null ? request.args.get("version") : null;
+                    this._homeObserver.addSession(this, version != null ? String.valueOf(version) : null);
+                }
+                break;
+            case "resume":
+                // Client reconnecté qui a gardé ses objets : seules les modifications manquées sont envoyées
+                this._clientReady = true;
+                if (this._session != null && this._session.isOpen()) {
+                    Object epoch = request.args != null ? request.args.get("epoch") : null;
+                    Object lastSequence = request.args != null ? request.args.get("last_seq") : null;
+                    // Sans epoch ou last_seq, le client ne peut pas reprendre : il reçoit un instantané
+                    this._homeObserver.resumeSession(this, epoch != null ? String.valueOf(epoch) : null,
+                            lastSequence instanceof Number ? ((Number) lastSequence).longValue() : -1);
                 }
                 break;
             case "test_ack":
@@ -151,344 +221,327 @@ public class PluginServerWebSocketEndpoint
                         ", property: " + request.args.get("property") + ", value: " + request.args.get("value"), 
                         PluginServerDebugWindow.LogType.INFO);
             }
-                for (HomePieceOfFurniture furniture : this._home.getFurniture()) {
-                    if (furniture.getId().equals(request.args.get("object"))) {
-                        String propertyName = String.valueOf(request.args.get("property"));
-                        String setMethodName = "set"
-                                + propertyName.substring(0, 1).toUpperCase()
-                                + propertyName.substring(1);
-                        
-                        // D'abord, essayer de trouver le setter directement (méthode publique)
-                        // Cela fonctionne pour les propriétés comme "color", "shininess", etc.
-                        Method setMethod = null;
-                        Class<?> fieldType = null;
-                        
-                        // Essayer les types courants pour les setters
-                        Class<?>[] commonTypes = {Integer.class, Float.class, String.class, Boolean.class, 
-                                                 int.class, float.class, boolean.class};
-                        
-                        for (Class<?> type : commonTypes) {
-                            try {
-                                setMethod = furniture.getClass().getMethod(setMethodName, type);
-                                fieldType = type;
-                                break;
-                            } catch (NoSuchMethodException ex) {
-                                // Continuer à chercher
-                            }
-                        }
-                        
-                        Object value = null;
-                        String valueStr = String.valueOf(request.args.get("value"));
-                        
-                        // Gérer le cas spécial de "null" (chaîne) pour permettre de réinitialiser certaines propriétés
-                        if (valueStr.equalsIgnoreCase("null") || valueStr.trim().isEmpty()) {
-                            // Pour Integer et Float, permettre null pour réinitialiser (ex: color = null)
-                            if (fieldType == Integer.class || fieldType == Float.class) {
-                                value = null;
-                            } else {
-                                System.out.println(this._languageManager.getString("log_prefix") + "Cannot set null value for primitive type " + fieldType.getCanonicalName());
-                                return;
-                            }
-                        } else if (fieldType == int.class || fieldType == Integer.class) {
-                            // Pour les couleurs RGB, accepter les formats hexadécimaux (0xFFFFFF) ou décimaux
-                            if (valueStr.startsWith("0x") || valueStr.startsWith("0X") || valueStr.startsWith("#")) {
-                                // Format hexadécimal pour les couleurs
-                                valueStr = valueStr.replace("0x", "").replace("0X", "").replace("#", "");
-                                value = Integer.parseInt(valueStr, 16);
-                            } else {
-                                value = Integer.parseInt(valueStr);
-                            }
-                        } else if (fieldType == float.class || fieldType == Float.class) {
-                            value = Float.parseFloat(valueStr);
-                        } else if (fieldType == boolean.class || fieldType == Boolean.class) {
-                            value = Boolean.parseBoolean(valueStr);
-                        } else if (fieldType == String.class) {
-                            value = valueStr;
-                        } else {
-                            System.out.println(this._languageManager.getString("log_prefix") + "Unsupported field type "
-                                    + (fieldType != null ? fieldType.getCanonicalName() : "null") + " for property "
-                                    + propertyName + " of object "
-                                    + furniture.getClass().getCanonicalName());
-                        }
-
-                        // Note: value peut être null pour Integer.class ou Float.class (pour réinitialiser)
-                        if (value == null && fieldType != null && (fieldType == int.class || fieldType == float.class || fieldType == boolean.class)) {
-                            System.out.println(this._languageManager.getString("log_prefix") + "Cannot set null value for primitive type " + fieldType.getCanonicalName());
-                            return;
-                        }
-                        
-                        // Si on a trouvé un setter, l'utiliser (méthode préférée)
-                        if (setMethod != null) {
-                            try {
-                                setMethod.invoke(furniture, value);
-                                if (this._debugWindow != null) {
-                                    this._debugWindow.addLog("Successfully set property '" + propertyName + "' to " + value + 
-                                            " using method " + setMethodName, PluginServerDebugWindow.LogType.INFO);
-                                }
-                                this.updateObjects();
-                            } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException ex) {
-                                ex.printStackTrace();
-                                if (this._debugWindow != null) {
-                                    this._debugWindow.addLog("Error invoking setter " + setMethodName + ": " + ex.getMessage(), 
-                                            PluginServerDebugWindow.LogType.ERROR);
-                                }
-                            }
-                        } else {
-                            System.out.println(this._languageManager.getString("log_prefix") + "Cannot set property " + propertyName + 
-                                    ": no setter method or field found");
-                            if (this._debugWindow != null) {
-                                this._debugWindow.addLog("Error: no setter or field found for property '" + propertyName + "'", 
-                                        PluginServerDebugWindow.LogType.ERROR);
-                            }
-                        }
-                        return;
+                HomePieceOfFurniture furniture = this._furnitureIndex.get(request.args.get("object"));
+                if (furniture != null) {
+                    this.defineProperty(furniture, String.valueOf(request.args.get("property")),
+                            String.valueOf(request.args.get("value")));
+                } else if (this._debugWindow != null) {
+                    this._debugWindow.addLog("Error: no object with id '" + request.args.get("object") + "'",
+                            PluginServerDebugWindow.LogType.ERROR);
+                }
+                break;
+            case "define_properties":
+                // Les define_property reçus avant doivent être appliqués avant
+                this._commandCoalescer.flush();
+                this.defineProperties(request.args != null ? request.args.get("properties") : null);
+                break;
+            case "subscribe":
+                if (request.args != null) {
+                    this._subscription = this._subscription.with(toStringList(request.args.get("objects")),
+                            toStringList(request.args.get("classes")), toStringList(request.args.get("properties")));
+                }
+                this.onSubscriptionChanged();
+                break;
+            case "unsubscribe":
+                if (request.args == null || request.args.isEmpty()) {
+                    // Sans argument, le client recommence à tout recevoir
+                    this._subscription = PluginServerSubscription.ALL;
+                } else {
+                    List<String> objects = toStringList(request.args.get("objects"));
+                    List<String> classes = toStringList(request.args.get("classes"));
+                    List<String> properties = toStringList(request.args.get("properties"));
+                    if (!this._subscription.canRemove(objects, classes, properties)) {
+                        this.sendError(request.action, "Cannot unsubscribe from what isn't subscribed to, or from "
+                                + "everything left: send unsubscribe without arguments to receive everything");
+                        break;
                     }
+                    this._subscription = this._subscription.without(objects, classes, properties);
                 }
+                this.onSubscriptionChanged();
                 break;
         }
     }
 
-    @Override
-    public void collectionChanged(CollectionEvent<HomePieceOfFurniture> event) {
-        if (event.getType() == Type.ADD) {
-            event.getItem().addPropertyChangeListener(this);
-        }
-        // Ne mettre à jour les objets que si le client est prêt
-        if (this._clientReady) {
-            this.updateObjects();
+    /**
+     * Signale au client qu'une de ses demandes a été refusée
+     */
+    private void sendError(String action, String message) {
+        if (this._debugWindow != null) {
+            this._debugWindow.addLog("Error: " + action + ": " + message, PluginServerDebugWindow.LogType.ERROR);
         }
+        Hashtable<String, Object> args = new Hashtable<>();
+        args.put("request", action);
+        args.put("message", message);
+        this.send(new ScratchomisedRequest("error", args));
     }
 
-    @Override
-    public void propertyChange(PropertyChangeEvent event) {
-        // Ne mettre à jour les objets que si le client est prêt
+    public PluginServerSubscription getSubscription() {
+        return this._subscription;
+    }
+
+    /**
+     * Renvoie un nouvel instantané au client, qui peut maintenant recevoir des
+     * objets qu'il ne recevait pas
+     */
+    private void onSubscriptionChanged() {
+        if (this._debugWindow != null) {
+            this._debugWindow.addLog("Subscription changed: " + this._subscription, PluginServerDebugWindow.LogType.INFO);
+        }
         if (this._clientReady) {
-            this.updateObjects();
+            this._homeObserver.requestSnapshot(this);
         }
     }
-    
+
     /**
-     * Envoie un message object_clicked au client
+     * Convertit un argument (une valeur ou une liste de valeurs) en liste de chaînes
      */
-    public void sendObjectClicked(String objectId) {
-        if (this._session == null || !this._session.isOpen()) {
-            return;
-        }
-        
-        try {
-            Hashtable<String, Object> args = new Hashtable<>();
-            args.put("object_id", objectId);
-            
-            ScratchomisedRequest request = new ScratchomisedRequest("object_clicked", args);
-            String message = this._json.asString(request);
-            this._session.getRemote().sendString(message);
-            
-            if (this._debugWindow != null) {
-                this._debugWindow.addLog("Sent object_clicked message for: " + objectId, PluginServerDebugWindow.LogType.SENT);
-            }
-        } catch (Exception ex) {
-            if (this._debugWindow != null) {
-                this._debugWindow.addLog("Error sending object_clicked message: " + ex.getMessage(), PluginServerDebugWindow.LogType.ERROR);
+    private static List<String> toStringList(Object value) {
+        ArrayList<String> values = new ArrayList<String>();
+        if (value instanceof List) {
+            for (Object item : (List<?>) value) {
+                values.add(String.valueOf(item));
             }
-            ex.printStackTrace();
+        } else if (value != null) {
+            values.add(String.valueOf(value));
         }
+        return values;
     }
 
     /**
-     * Vérifie si un objet est une lumière, lampe ou interrupteur
-     * Vérifie le catalogId (format: "prefix#name-switch", "prefix#name-light", etc.)
+     * Modifie une propriété d'un objet, à partir de la valeur reçue de Scratch.
+     * La modification est faite à la fin de l'intervalle de regroupement, sauf si
+     * une valeur plus récente de la même propriété la remplace d'ici là.
      */
-    private boolean isLightLampOrSwitch(HomePieceOfFurniture furniture) {
-        // Vérifier le nom de la classe (pour les lumières spécialisées comme HomeLight)
-        Class<?> current_class = furniture.getClass();
-        while (current_class != null && current_class != Object.class) {
-            String className = current_class.getCanonicalName().toLowerCase();
-            if (className.contains("light") || className.contains("lamp") || className.contains("switch")) {
-                return true;
-            }
-            current_class = current_class.getSuperclass();
+    private void defineProperty(HomePieceOfFurniture furniture, String propertyName, String valueStr) {
+        PropertyAccessor accessor = this.getSetter(furniture, propertyName);
+        if (accessor == null) {
+            return;
         }
-        
-        // Vérifier le catalogId (identifiant de référencement, format: "prefix#name-switch")
+
+        Object value;
         try {
-            ObjectMapper mapper = new ObjectMapper();
-            @SuppressWarnings("unchecked")
-            HashMap<String, Object> mappedObject = (HashMap<String, Object>) mapper.convertValue(furniture, HashMap.class);
-            
-            // Vérifier l'ID du catalogue (identifiant de référencement original, non traduit)
-            // Format attendu: "Scopia#square-switch", "prefix#name-light", etc.
-            if (mappedObject.containsKey("catalogId") && mappedObject.get("catalogId") != null) {
-                String catalogId = mappedObject.get("catalogId").toString().toLowerCase();
-                // Vérifier si l'ID du catalogue contient "switch", "light" ou "lamp"
-                if (catalogId.contains("switch") || catalogId.contains("light") || catalogId.contains("lamp")) {
-                    if (this._debugWindow != null) {
-                        this._debugWindow.addLog("Object '" + (mappedObject.get("name") != null ? mappedObject.get("name") : "unnamed") + "' (catalogId: " + mappedObject.get("catalogId") + ") matched by catalogId filter", PluginServerDebugWindow.LogType.INFO);
-                    }
-                    return true;
-                }
-            }
-            
-            // Vérifier aussi le nom de l'objet (peut être traduit, pour compatibilité)
-            if (mappedObject.containsKey("name") && mappedObject.get("name") != null) {
-                String objectName = mappedObject.get("name").toString().toLowerCase();
-                // Vérifier si le nom contient "switch", "light", "lamp", "interrupteur" (insensible à la casse)
-                if (objectName.contains("switch") || objectName.contains("light") || objectName.contains("lamp") || objectName.contains("interrupteur")) {
-                    if (this._debugWindow != null) {
-                        this._debugWindow.addLog("Object '" + mappedObject.get("name") + "' matched by name filter", PluginServerDebugWindow.LogType.INFO);
-                    }
-                    return true;
-                }
-            }
-        } catch (Exception e) {
-            // En cas d'erreur, ignorer et continuer avec le résultat de la vérification de classe
-            if (this._debugWindow != null) {
-                this._debugWindow.addLog("Error checking object catalogId/name: " + e.getMessage(), PluginServerDebugWindow.LogType.ERROR);
-            }
+            value = accessor.parse(valueStr);
+        } catch (IllegalArgumentException ex) {
+            this.logInvalidValue(accessor, valueStr, ex);
+            return;
         }
-        
-        return false;
+
+        this._commandCoalescer.offer(furniture, accessor, value);
     }
 
-    @SuppressWarnings("unchecked")
-    private void updateObjects() {
-        if (this._home == null) {
+    /**
+     * Modifie plusieurs propriétés en une fois (define_properties), à partir d'une
+     * liste de {object, property, value}. Les modifications sont faites sur le
+     * thread de l'interface, annulables en une seule fois, et envoyées aux
+     * clients dans un seul message.
+     */
+    private void defineProperties(Object entries) {
+        if (!(entries instanceof List)) {
             if (this._debugWindow != null) {
-                this._debugWindow.addLog("Cannot update objects: home is null", PluginServerDebugWindow.LogType.ERROR);
+                this._debugWindow.addLog("Error: define_properties expects a list of properties",
+                        PluginServerDebugWindow.LogType.ERROR);
             }
             return;
         }
-        
-        Hashtable<String, Object> requestArguments = new Hashtable<>();
-        requestArguments.put("objects", new ArrayList<Map<String, Object>>());
-        ObjectMapper mapper = new ObjectMapper();
-        int totalObjects = 0;
-        for (HomePieceOfFurniture furniture : this._home.getFurniture()) {
-            totalObjects++;
-            
-            // Log toutes les classes de l'objet pour identifier les interrupteurs
-            if (this._debugWindow != null) {
-                try {
-                    ObjectMapper tempMapper = new ObjectMapper();
-                    HashMap<String, Object> tempMappedObject = tempMapper.convertValue(furniture, HashMap.class);
-                    String objectName = tempMappedObject.containsKey("name") ? tempMappedObject.get("name").toString() : "unnamed";
-                    String catalogId = tempMappedObject.containsKey("catalogId") ? tempMappedObject.get("catalogId").toString() : "no catalogId";
-                    
-                    ArrayList<String> allClasses = new ArrayList<String>();
-                    Class<?> current_class = furniture.getClass();
-                    while (current_class != null && current_class != Object.class) {
-                        allClasses.add(current_class.getCanonicalName());
-                        current_class = current_class.getSuperclass();
-                    }
-                    
-                    this._debugWindow.addLog("Object #" + totalObjects + ": name='" + objectName + "', catalogId='" + catalogId + "', classes=" + String.join(", ", allClasses), PluginServerDebugWindow.LogType.INFO);
-                } catch (Exception e) {
-                    // Ignorer les erreurs de logging
-                }
-            }
-            
-            // Filtrer pour ne garder que les lumières, lampes et interrupteurs
-            if (!isLightLampOrSwitch(furniture)) {
+
+        // Les objets, setters et valeurs sont résolus ici, pour que le thread de
+        // l'interface n'ait plus qu'à appeler les setters
+        FurniturePropertyEdit edit = new FurniturePropertyEdit(
+                this._languageManager.getString("undo.define_properties"));
+        for (Object entry : (List<?>) entries) {
+            if (!(entry instanceof Map)) {
                 continue;
             }
-            
-            HashMap<String, Object> mappedObject = mapper.convertValue(furniture, HashMap.class);
-            
-            // Créer un objet simplifié avec seulement les propriétés essentielles
-            HashMap<String, Object> simplifiedObject = new HashMap<String, Object>();
-            
-            // Propriétés essentielles
-            if (mappedObject.containsKey("id")) {
-                simplifiedObject.put("id", mappedObject.get("id"));
-            }
-            if (mappedObject.containsKey("name")) {
-                simplifiedObject.put("name", mappedObject.get("name"));
-            }
-            
-            // Classes
-            ArrayList<String> classes = new ArrayList<String>();
-            Class<?> current_class = furniture.getClass();
-            while (true) {
-                if (current_class == Object.class) {
-                    break;
+            Map<?, ?> property = (Map<?, ?>) entry;
+            if (property.get("object") == null || property.get("property") == null) {
+                if (this._debugWindow != null) {
+                    this._debugWindow.addLog("Error: define_properties entry without object or property: " + property,
+                            PluginServerDebugWindow.LogType.ERROR);
                 }
-                classes.add(current_class.getCanonicalName());
-                current_class = current_class.getSuperclass();
+                continue;
             }
-            simplifiedObject.put("__scratchomisedClasses", classes);
-            
-            // Copier seulement les propriétés les plus importantes pour réduire la taille
-            // Liste des propriétés essentielles à copier
-            String[] essentialProperties = {
-                "x", "y", "z", "angle", "width", "depth", "height",
-                "visible", "locked", "name", "id", "model", "color",
-                "texture", "shininess", "power", "lightColor"
-            };
-            
-            for (String prop : essentialProperties) {
-                Object value = mappedObject.get(prop);
-                // Toujours copier les propriétés essentielles, même si elles sont null ou absentes
-                // Cela permet de les afficher dans le menu des propriétés même si elles n'ont pas de valeur
-                // Ne copier que les types primitifs (String, Number, Boolean) ou null
-                if (value == null) {
-                    // Ajouter null pour que la propriété apparaisse dans le menu
-                    simplifiedObject.put(prop, null);
-                } else if (value instanceof String || 
-                           value instanceof Number || 
-                           value instanceof Boolean) {
-                    simplifiedObject.put(prop, value);
+            HomePieceOfFurniture furniture = this._furnitureIndex.get(property.get("object"));
+            if (furniture == null) {
+                if (this._debugWindow != null) {
+                    this._debugWindow.addLog("Error: no object with id '" + property.get("object") + "'",
+                            PluginServerDebugWindow.LogType.ERROR);
                 }
+                continue;
+            }
+            String propertyName = String.valueOf(property.get("property"));
+            PropertyAccessor accessor = this.getSetter(furniture, propertyName);
+            if (accessor == null) {
+                continue;
+            }
+            String valueStr = String.valueOf(property.get("value"));
+            try {
+                edit.addChange(furniture, accessor, accessor.parse(valueStr));
+            } catch (IllegalArgumentException ex) {
+                this.logInvalidValue(accessor, valueStr, ex);
             }
-            
-            ((ArrayList<Map<String, Object>>)requestArguments.get("objects")).add(simplifiedObject);
         }
-        ScratchomisedRequest updateObjectRequest = new ScratchomisedRequest("update_objects", requestArguments);
-        try {
-            if (this._session == null) {
-                if (this._debugWindow != null) {
-                    this._debugWindow.addLog("Cannot send update_objects: session is null", PluginServerDebugWindow.LogType.ERROR);
+        if (edit.size() == 0) {
+            return;
+        }
+
+        SwingUtilities.invokeLater(() -> {
+            this._homeObserver.runBatch(() -> {
+                ArrayList<HomePieceOfFurniture> modifiedFurniture = edit.apply();
+                for (HomePieceOfFurniture furniture : modifiedFurniture) {
+                    this._homeObserver.markDirty(furniture);
                 }
-                return;
-            }
-            
-            if (!this._session.isOpen()) {
                 if (this._debugWindow != null) {
-                    this._debugWindow.addLog("Cannot send update_objects: session is not open", 
-                        PluginServerDebugWindow.LogType.ERROR);
+                    this._debugWindow.addLog("Successfully set " + modifiedFurniture.size() + " of " + edit.size()
+                            + " properties", PluginServerDebugWindow.LogType.INFO);
                 }
-                return;
+            });
+            if (this._undoableEditSupport != null && edit.isUndoable()) {
+                this._undoableEditSupport.postEdit(edit);
             }
-            
-            String sent = this._json.asString(updateObjectRequest);
-            
-            // Vérifier la taille du message
-            int messageSize = sent.length();
-            int objectsCount = ((ArrayList<Map<String, Object>>)requestArguments.get("objects")).size();
+        });
+    }
+
+    /**
+     * Renvoie le setter d'une propriété d'un objet
+     *
+     * @return the accessor, or null if the property can't be set
+     */
+    private PropertyAccessor getSetter(HomePieceOfFurniture furniture, String propertyName) {
+        // Le setter et son type sont résolus une seule fois par classe et propriété
+        PropertyAccessor accessor = PropertyAccessorRegistry.getInstance().getAccessor(furniture.getClass(), propertyName);
+        if (accessor == null || !accessor.isWritable()) {
+            this._logger.info("Cannot set property {}: no setter method or field found", propertyName);
             if (this._debugWindow != null) {
-                this._debugWindow.addLog("Preparing to send update_objects: " + objectsCount + 
-                    " objects filtered from " + totalObjects + " total objects, message size: " + messageSize + " chars", 
-                    PluginServerDebugWindow.LogType.INFO);
+                this._debugWindow.addLog("Error: no setter or field found for property '" + propertyName + "'", 
+                        PluginServerDebugWindow.LogType.ERROR);
             }
-            
-            // Envoyer le message
-            this._session.getRemote().sendString(sent);
-            
-            if (this._debugWindow != null) {
-                // Tronquer le message si trop long pour l'affichage
-                String displayMessage = sent.length() > 200 ? sent.substring(0, 200) + "..." : sent;
-                this._debugWindow.addLog("Message sent successfully: " + displayMessage + " (size: " + sent.length() + " chars)", PluginServerDebugWindow.LogType.SENT);
+            return null;
+        }
+        return accessor;
+    }
+
+    private void logInvalidValue(PropertyAccessor accessor, String valueStr, IllegalArgumentException ex) {
+        this._logger.info("Invalid value {} for property {} of type {} : {}", valueStr, accessor.getName(),
+                accessor.getType().getCanonicalName(), ex.getMessage());
+        if (this._debugWindow != null) {
+            this._debugWindow.addLog("Error: invalid value '" + valueStr + "' for property '" + accessor.getName() + "' ("
+                    + accessor.getType().getCanonicalName() + ")", PluginServerDebugWindow.LogType.ERROR);
+        }
+    }
+
+    /**
+     * Renvoie le nombre de messages en attente d'envoi
+     */
+    public int getQueuedFrames() {
+        return this._outboundQueue != null ? this._outboundQueue.size() : 0;
+    }
+
+    /**
+     * Renvoie les statistiques d'envoi de la session, pour la fenêtre de debug
+     */
+    public String getStatistics() {
+        String address = (this._session != null && this._session.getRemoteAddress() != null)
+            ? this._session.getRemoteAddress().toString()
+            : "unknown";
+        if (this._outboundQueue == null) {
+            return address;
+        }
+        StringBuilder statistics = new StringBuilder(address);
+        statistics.append(" (").append(this._outboundQueue.getWireFormat()).append("): ");
+        statistics.append(this._outboundQueue.getSentFrames()).append(" messages, ");
+        if (this._deflateExtension != null) {
+            long uncompressed = this._deflateExtension.getUncompressedBytes();
+            long compressed = this._deflateExtension.getWireBytes();
+            statistics.append(formatBytes(uncompressed)).append(" uncompressed, ")
+                    .append(formatBytes(compressed)).append(" compressed");
+            if (uncompressed > 0) {
+                statistics.append(String.format(" (%.0f%%)", compressed * 100.0 / uncompressed));
             }
-        } catch (IOException e) {
-            e.printStackTrace();
+        } else {
+            statistics.append(formatBytes(this._outboundQueue.getSentBytes())).append(" uncompressed");
+        }
+        if (this._outboundQueue.getDroppedFrames() > 0) {
+            statistics.append(", ").append(this._outboundQueue.getDroppedFrames()).append(" dropped");
+        }
+        if (this._commandCoalescer.getReceivedCommands() > 0) {
+            statistics.append(", ").append(this._commandCoalescer.getReceivedCommands()).append(" commands (")
+                    .append(this._commandCoalescer.getMergedCommands()).append(" merged)");
+        }
+        return statistics.toString();
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        } else if (bytes < 1024 * 1024) {
+            return String.format("%.1f KB", bytes / 1024.0);
+        }
+        return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+
+    /**
+     * Renvoie l'extension de compression négociée pour une connexion
+     *
+     * @return the extension, or null if the client didn't ask for compression
+     */
+    private static PluginServerDeflateExtension findDeflateExtension(Session session) {
+        if (session instanceof WebSocketSession
+                && ((WebSocketSession) session).getOutgoingHandler() instanceof ExtensionStack) {
+            ExtensionStack extensions = (ExtensionStack) ((WebSocketSession) session).getOutgoingHandler();
+            for (Extension extension : extensions.getExtensions()) {
+                if (extension instanceof PluginServerDeflateExtension) {
+                    return (PluginServerDeflateExtension) extension;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Envoie une réponse au client
+     *
+     * @return whether the message was queued
+     */
+    private boolean send(ScratchomisedRequest request) {
+        return this.send(request, PluginServerOutboundQueue.Kind.REPLY);
+    }
+
+    private boolean send(ScratchomisedRequest request, PluginServerOutboundQueue.Kind kind) {
+        return this.sendFrame(new PluginServerFrame(request), kind);
+    }
+
+    /**
+     * Annule la demande d'instantané de la file d'envoi, quand il ne sera pas
+     * envoyé
+     */
+    public void cancelSnapshotRequest() {
+        if (this._outboundQueue != null) {
+            this._outboundQueue.cancelSnapshotRequest();
+        }
+    }
+
+    /**
+     * Ajoute à la file d'envoi du client un message, éventuellement partagé avec
+     * d'autres sessions. L'envoi lui-même est asynchrone.
+     *
+     * @return whether the message was queued
+     */
+    public boolean sendFrame(PluginServerFrame frame, PluginServerOutboundQueue.Kind kind) {
+        if (this._session == null || this._outboundQueue == null) {
             if (this._debugWindow != null) {
-                this._debugWindow.addLog("Error sending message: " + e.getMessage() + " (session open: " + 
-                    (this._session != null && this._session.isOpen()) + ")", 
-                    PluginServerDebugWindow.LogType.ERROR);
+                this._debugWindow.addLog("Cannot send message: session is null", PluginServerDebugWindow.LogType.ERROR);
             }
-        } catch (Exception e) {
-            e.printStackTrace();
+            return false;
+        }
+
+        if (!this._session.isOpen()) {
             if (this._debugWindow != null) {
-                this._debugWindow.addLog("Unexpected error sending message: " + e.getMessage(), PluginServerDebugWindow.LogType.ERROR);
+                this._debugWindow.addLog("Cannot send message: session is not open",
+                    PluginServerDebugWindow.LogType.ERROR);
             }
+            return false;
         }
+
+        return this._outboundQueue.offer(frame, kind);
     }
 }
@@ -3,6 +3,8 @@ package io.github.totchi_lagawi.scratchomised_plugin;
 import org.eclipse.jetty.websocket.servlet.WebSocketServlet;
 import org.eclipse.jetty.websocket.servlet.WebSocketServletFactory;
 
+import javax.swing.undo.UndoableEditSupport;
+
 import com.eteks.sweethome3d.model.Home;
 import com.eteks.sweethome3d.viewcontroller.HomeController;
 
@@ -11,22 +13,46 @@ public class PluginServerWebSocketServlet extends WebSocketServlet {
     private Home _home;
     private PluginServerDebugWindow _debugWindow;
     private HomeController _homeController;
+    private UndoableEditSupport _undoableEditSupport;
+    private PluginServerHomeObserver _homeObserver;
+    private PluginServerSessionRegistry _sessionRegistry;
+    private FurnitureIndex _furnitureIndex;
+    private PluginServerSettings _settings;
 
-    public PluginServerWebSocketServlet(LanguageManager languageManager, Home home, PluginServerDebugWindow debugWindow, HomeController homeController) {
+    public PluginServerWebSocketServlet(LanguageManager languageManager, Home home, PluginServerDebugWindow debugWindow, HomeController homeController, UndoableEditSupport undoableEditSupport, PluginServerHomeObserver homeObserver, PluginServerSessionRegistry sessionRegistry, FurnitureIndex furnitureIndex, PluginServerSettings settings) {
         this._languageManager = languageManager;
         this._home = home;
         this._debugWindow = debugWindow;
         this._homeController = homeController;
+        this._undoableEditSupport = undoableEditSupport;
+        this._homeObserver = homeObserver;
+        this._sessionRegistry = sessionRegistry;
+        this._furnitureIndex = furnitureIndex;
+        this._settings = settings;
     }
 
+    // L'ExtensionFactory est dépréciée dans Jetty 9.4, mais c'est le seul moyen d'y remplacer une extension
+    @SuppressWarnings("deprecation")
     @Override
     public void configure(WebSocketServletFactory factory) {
-        factory.getPolicy().setIdleTimeout(Long.MAX_VALUE);
+        factory.getPolicy().setIdleTimeout(
+                this._settings.websocket_idle_timeout > 0 ? this._settings.websocket_idle_timeout : Long.MAX_VALUE);
         // Augmenter la taille maximale du buffer pour les gros messages
         factory.getPolicy().setMaxTextMessageBufferSize(10 * 1024 * 1024); // 10 MB
         factory.getPolicy().setMaxBinaryMessageBufferSize(10 * 1024 * 1024); // 10 MB
+        // Compression des messages : les instantanés JSON sont très répétitifs
+        // Nom complet : @SuppressWarnings ne couvre pas les imports
+        org.eclipse.jetty.websocket.api.extensions.ExtensionFactory extensionFactory = factory.getExtensionFactory();
+        extensionFactory.unregister("deflate-frame");
+        extensionFactory.unregister("x-webkit-deflate-frame");
+        if (this._settings.compression) {
+            PluginServerDeflateExtension.setThreshold(this._settings.compression_threshold);
+            extensionFactory.register("permessage-deflate", PluginServerDeflateExtension.class);
+        } else {
+            extensionFactory.unregister("permessage-deflate");
+        }
         factory.register(PluginServerWebSocketEndpoint.class);
-        factory.setCreator(new PluginServerWebSocketCreator(this._languageManager, this._home, this._debugWindow, this._homeController));
+        factory.setCreator(new PluginServerWebSocketCreator(this._languageManager, this._home, this._debugWindow, this._homeController, this._undoableEditSupport, this._homeObserver, this._sessionRegistry, this._furnitureIndex, this._settings));
     }
 
 }
@@ -0,0 +1,36 @@
+package io.github.totchi_lagawi.scratchomised_plugin;
+
+/**
+ * Format des messages échangés avec un client, choisi par le sous-protocole
+ * WebSocket qu'il demande
+ */
+public enum PluginServerWireFormat {
+    // Messages texte JSON (format par défaut)
+    JSON("scratchomised"),
+    // Messages binaires CBOR, où les chaînes répétées (noms des propriétés,
+    // classes) ne sont encodées qu'une fois par message
+    CBOR("scratchomised.bin");
+
+    private String _subProtocol;
+
+    private PluginServerWireFormat(String subProtocol) {
+        this._subProtocol = subProtocol;
+    }
+
+    public String getSubProtocol() {
+        return this._subProtocol;
+    }
+
+    /**
+     * Renvoie le format correspondant au sous-protocole accepté pour une
+     * connexion (JSON si aucun ne l'a été)
+     */
+    public static PluginServerWireFormat fromSubProtocol(String subProtocol) {
+        for (PluginServerWireFormat format : values()) {
+            if (format._subProtocol.equals(subProtocol)) {
+                return format;
+            }
+        }
+        return JSON;
+    }
+}
@@ -0,0 +1,83 @@
+package io.github.totchi_lagawi.scratchomised_plugin;
+
+import java.lang.invoke.MethodHandle;
+import java.util.function.Function;
+
+/**
+ * Accès précompilé à une propriété d'une classe de meuble : setter et getter
+ * sous forme de MethodHandle, avec le type de la propriété et le parser qui
+ * convertit les valeurs reçues de Scratch vers ce type
+ */
+public class PropertyAccessor {
+    private String _name;
+    private Class<?> _type;
+    private MethodHandle _setter;
+    private MethodHandle _getter;
+    private Function<String, Object> _parser;
+
+    /**
+     * @param name   le nom de la propriété (ex : "color")
+     * @param type   le type du paramètre du setter, ou du retour du getter s'il
+     *               n'y a pas de setter
+     * @param setter le setter, de type (Object, Object)void, ou null
+     * @param getter le getter, de type (Object)Object, ou null
+     * @param parser le parser des valeurs, ou null si le type n'est pas supporté
+     */
+    public PropertyAccessor(String name, Class<?> type, MethodHandle setter, MethodHandle getter,
+            Function<String, Object> parser) {
+        this._name = name;
+        this._type = type;
+        this._setter = setter;
+        this._getter = getter;
+        this._parser = parser;
+    }
+
+    public String getName() {
+        return this._name;
+    }
+
+    public Class<?> getType() {
+        return this._type;
+    }
+
+    public boolean isReadable() {
+        return this._getter != null;
+    }
+
+    public boolean isWritable() {
+        return this._setter != null && this._parser != null;
+    }
+
+    /**
+     * Convertit une valeur reçue de Scratch vers le type de la propriété
+     *
+     * @throws IllegalArgumentException if the value can't be converted
+     */
+    public Object parse(String value) throws IllegalArgumentException {
+        if (this._parser == null) {
+            throw new IllegalArgumentException("Unsupported field type " + this._type.getCanonicalName()
+                    + " for property " + this._name);
+        }
+        return this._parser.apply(value);
+    }
+
+    /**
+     * Appelle le setter de la propriété
+     */
+    public void set(Object target, Object value) throws Throwable {
+        if (this._setter == null) {
+            throw new UnsupportedOperationException("Property " + this._name + " has no setter");
+        }
+        this._setter.invokeExact(target, value);
+    }
+
+    /**
+     * Appelle le getter de la propriété
+     */
+    public Object get(Object target) throws Throwable {
+        if (this._getter == null) {
+            throw new UnsupportedOperationException("Property " + this._name + " has no getter");
+        }
+        return (Object) this._getter.invokeExact(target);
+    }
+}
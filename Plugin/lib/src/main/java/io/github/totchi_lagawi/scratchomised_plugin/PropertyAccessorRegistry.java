@@ -0,0 +1,148 @@
+package io.github.totchi_lagawi.scratchomised_plugin;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+/**
+ * Registre des accès aux propriétés des meubles : la recherche du setter et du
+ * getter n'est faite qu'une fois par couple (classe, propriété), les appels
+ * suivants ne coûtent qu'une recherche dans une map
+ */
+public class PropertyAccessorRegistry {
+    private static final PropertyAccessorRegistry _instance = new PropertyAccessorRegistry();
+    // Types essayés pour les setters, dans l'ordre
+    private static final Class<?>[] SETTER_TYPES = { Integer.class, Float.class, String.class, Boolean.class,
+            int.class, float.class, boolean.class };
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    private Map<Class<?>, Function<String, Object>> _parsers = new HashMap<>();
+    private ConcurrentHashMap<Class<?>, ConcurrentHashMap<String, PropertyAccessor>> _accessors = new ConcurrentHashMap<>();
+    private Logger _logger = Log.getLogger(PropertyAccessorRegistry.class);
+
+    private PropertyAccessorRegistry() {
+        // Pour les couleurs RGB, accepter les formats hexadécimaux (0xFFFFFF, #FFFFFF) ou décimaux
+        this._parsers.put(int.class, PropertyAccessorRegistry::parseInteger);
+        this._parsers.put(Integer.class, nullable(PropertyAccessorRegistry::parseInteger));
+        this._parsers.put(float.class, (value) -> Float.parseFloat(checkNotNull(value)));
+        this._parsers.put(Float.class, nullable((value) -> Float.parseFloat(value)));
+        this._parsers.put(boolean.class, (value) -> Boolean.parseBoolean(checkNotNull(value)));
+        this._parsers.put(Boolean.class, (value) -> Boolean.parseBoolean(checkNotNull(value)));
+        this._parsers.put(String.class, PropertyAccessorRegistry::checkNotNull);
+    }
+
+    public static PropertyAccessorRegistry getInstance() {
+        return _instance;
+    }
+
+    /**
+     * Renvoie l'accès à une propriété d'une classe
+     *
+     * @param type     la classe du meuble
+     * @param property le nom de la propriété (ex : "color")
+     * @return the accessor, or null if the class has neither a setter nor a
+     *         getter for this property
+     */
+    public PropertyAccessor getAccessor(Class<?> type, String property) {
+        ConcurrentHashMap<String, PropertyAccessor> accessors = this._accessors.computeIfAbsent(type,
+                (key) -> new ConcurrentHashMap<>());
+        if (property == null) {
+            return null;
+        }
+        PropertyAccessor accessor = accessors.get(property);
+        if (accessor == null) {
+            // Seules les propriétés trouvées sont gardées : les noms envoyés par les
+            // clients ne doivent pas faire grossir le cache
+            accessor = this.resolve(type, property);
+            if (accessor != null) {
+                PropertyAccessor previous = accessors.putIfAbsent(property, accessor);
+                if (previous != null) {
+                    accessor = previous;
+                }
+            }
+        }
+        return accessor;
+    }
+
+    private PropertyAccessor resolve(Class<?> type, String property) {
+        if (property == null || property.isEmpty()) {
+            return null;
+        }
+        String capitalizedName = property.substring(0, 1).toUpperCase() + property.substring(1);
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+
+        Method setMethod = null;
+        for (Class<?> setterType : SETTER_TYPES) {
+            try {
+                setMethod = type.getMethod("set" + capitalizedName, setterType);
+                break;
+            } catch (NoSuchMethodException ex) {
+                // Continuer à chercher
+            }
+        }
+
+        Method getMethod = null;
+        for (String prefix : new String[] { "get", "is" }) {
+            try {
+                getMethod = type.getMethod(prefix + capitalizedName);
+                break;
+            } catch (NoSuchMethodException ex) {
+                // Continuer à chercher
+            }
+        }
+
+        if (setMethod == null && getMethod == null) {
+            return null;
+        }
+
+        try {
+            MethodHandle setter = setMethod != null ? lookup.unreflect(setMethod).asType(SETTER_TYPE) : null;
+            MethodHandle getter = getMethod != null && getMethod.getReturnType() != void.class
+                    ? lookup.unreflect(getMethod).asType(GETTER_TYPE)
+                    : null;
+            Class<?> propertyType = setMethod != null ? setMethod.getParameterTypes()[0]
+                    : getMethod.getReturnType();
+            return new PropertyAccessor(property, propertyType, setter, getter, this._parsers.get(propertyType));
+        } catch (IllegalAccessException ex) {
+            this._logger.warn("Cannot access property " + property + " of " + type.getName(), ex);
+            return null;
+        }
+    }
+
+    /**
+     * Gère le cas spécial de "null" (chaîne) ou de la chaîne vide, pour permettre
+     * de réinitialiser certaines propriétés (ex : color = null)
+     */
+    private static Function<String, Object> nullable(Function<String, Object> parser) {
+        return (value) -> isNull(value) ? null : parser.apply(value);
+    }
+
+    private static boolean isNull(String value) {
+        return value == null || value.equalsIgnoreCase("null") || value.trim().isEmpty();
+    }
+
+    private static String checkNotNull(String value) {
+        if (isNull(value)) {
+            throw new IllegalArgumentException("Cannot set null value for this property");
+        }
+        return value;
+    }
+
+    private static Object parseInteger(String value) {
+        checkNotNull(value);
+        if (value.startsWith("0x") || value.startsWith("0X") || value.startsWith("#")) {
+            // Format hexadécimal pour les couleurs
+            return Integer.parseInt(value.replace("0x", "").replace("0X", "").replace("#", ""), 16);
+        }
+        return Integer.parseInt(value);
+    }
+}
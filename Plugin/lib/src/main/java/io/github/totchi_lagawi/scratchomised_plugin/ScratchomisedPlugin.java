@@ -16,7 +16,7 @@ public class ScratchomisedPlugin extends Plugin {
             this._languageManager = new LanguageManager(language);
             
             PluginActionManageServer pluginActionManageServer = new PluginActionManageServer(this._languageManager,
-                    this.getHome(), this.getHomeController());
+                    this.getHome(), this.getHomeController(), this.getUndoableEditSupport());
             PluginActionExportDatas pluginActionExportDatas = new PluginActionExportDatas(
                     this._languageManager, this.getHome(), this.getHomeController());
             userPreferences.addPropertyChangeListener(Property.LANGUAGE, this._languageManager);
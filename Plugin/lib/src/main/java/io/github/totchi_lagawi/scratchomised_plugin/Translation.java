@@ -12,6 +12,8 @@ public class Translation {
     public Menus menus;
     public Errors errors;
     public DebugWindow debug_window;
+    public Export export;
+    public Undo undo;
 
     public static class Menus {
         public MenuServer server;
@@ -39,6 +41,26 @@ public class Translation {
         public String status_running;
         public String status_stopped;
         public String clear;
+        public String pause;
+        public String level;
+    }
+
+    public static class Export {
+        public String no_objects;
+        public String error;
+        public String error_title;
+        public String success;
+        public String success_title;
+        public String dialog_title;
+        public String dialog_message;
+        public String option_block_per_object;
+        public String option_list_of_objects;
+        public String cancel;
+        public String validate;
+    }
+
+    public static class Undo {
+        public String define_properties;
     }
 
     /**
@@ -0,0 +1,109 @@
+package io.github.totchi_lagawi.scratchomised_plugin;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.swing.SwingUtilities;
+
+import com.eteks.sweethome3d.model.CatalogPieceOfFurniture;
+import com.eteks.sweethome3d.model.HomePieceOfFurniture;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class PluginServerCommandCoalescerTest {
+    // Modifications appliquées, sous la forme "propriété=valeur"
+    private List<String> _writes = new ArrayList<String>();
+    private PluginServerUpdateScheduler _updateScheduler;
+    private PluginServerHomeObserver _homeObserver;
+    private PluginServerCommandCoalescer _coalescer;
+
+    static void record(List<String> writes, String property, Object target, Object value) {
+        writes.add(property + "=" + value);
+    }
+
+    /**
+     * Crée un accès à une propriété dont le setter ne fait que noter la
+     * modification
+     */
+    private PropertyAccessor accessor(String property) throws ReflectiveOperationException {
+        MethodHandle record = MethodHandles.lookup().findStatic(PluginServerCommandCoalescerTest.class, "record",
+                MethodType.methodType(void.class, List.class, String.class, Object.class, Object.class));
+        return new PropertyAccessor(property, Float.class, MethodHandles.insertArguments(record, 0, this._writes,
+                property), null, Float::valueOf);
+    }
+
+    private static HomePieceOfFurniture piece() {
+        return new HomePieceOfFurniture(new CatalogPieceOfFurniture("Chair", null, null, 50, 50, 100, true, false));
+    }
+
+    /**
+     * Applique les modifications en attente et attend qu'elles soient faites sur
+     * le thread de l'interface
+     */
+    private void flush() throws Exception {
+        this._coalescer.flush();
+        SwingUtilities.invokeAndWait(() -> {
+        });
+    }
+
+    @BeforeEach
+    void createCoalescer() {
+        // Un intervalle long : seul flush() applique les modifications pendant le test
+        this._updateScheduler = new PluginServerUpdateScheduler(60000, null);
+        this._homeObserver = new PluginServerHomeObserver(null, this._updateScheduler, null, new PluginServerSettings());
+        this._coalescer = new PluginServerCommandCoalescer(this._homeObserver, null);
+    }
+
+    @AfterEach
+    void dispose() {
+        this._homeObserver.dispose();
+        this._updateScheduler.shutdown();
+    }
+
+    @Test
+    void onlyLatestValueOfEachPropertyIsApplied() throws Exception {
+        HomePieceOfFurniture piece = piece();
+        PropertyAccessor x = this.accessor("x");
+        this._coalescer.offer(piece, x, 1f);
+        this._coalescer.offer(piece, this.accessor("y"), 2f);
+        this._coalescer.offer(piece, x, 3f);
+        this.flush();
+
+        // La valeur la plus récente prend la place de celle qu'elle remplace
+        assertEquals(Arrays.asList("y=2.0", "x=3.0"), this._writes);
+        assertEquals(3, this._coalescer.getReceivedCommands());
+        assertEquals(1, this._coalescer.getMergedCommands());
+    }
+
+    @Test
+    void samePropertyOfDifferentObjectsIsNotMerged() throws Exception {
+        PropertyAccessor x = this.accessor("x");
+        this._coalescer.offer(piece(), x, 1f);
+        this._coalescer.offer(piece(), x, 2f);
+        this.flush();
+
+        assertEquals(Arrays.asList("x=1.0", "x=2.0"), this._writes);
+        assertEquals(0, this._coalescer.getMergedCommands());
+    }
+
+    @Test
+    void appliedValueIsNotMergedWithLaterOne() throws Exception {
+        HomePieceOfFurniture piece = piece();
+        PropertyAccessor x = this.accessor("x");
+        this._coalescer.offer(piece, x, 1f);
+        this.flush();
+        this._coalescer.offer(piece, x, 2f);
+        this.flush();
+
+        assertEquals(Arrays.asList("x=1.0", "x=2.0"), this._writes);
+        assertEquals(0, this._coalescer.getMergedCommands());
+    }
+}
@@ -0,0 +1,80 @@
+package io.github.totchi_lagawi.scratchomised_plugin;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+import org.junit.jupiter.api.Test;
+
+class PluginServerFrameTest {
+    /**
+     * Message dont les noms de propriétés et les valeurs se répètent, comme un
+     * instantané de plusieurs lumières
+     */
+    private static ScratchomisedRequest snapshot(int objects) {
+        ArrayList<Map<String, Object>> list = new ArrayList<Map<String, Object>>();
+        for (int i = 0; i < objects; i++) {
+            HashMap<String, Object> object = new HashMap<String, Object>();
+            object.put("id", "light-" + i);
+            object.put("name", "Ceiling light");
+            object.put("catalogId", "eTeks#ceilingLight");
+            object.put("power", 0.5);
+            object.put("visible", true);
+            list.add(object);
+        }
+        Hashtable<String, Object> args = new Hashtable<String, Object>();
+        args.put("objects", list);
+        return new ScratchomisedRequest("update_objects", args);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void binaryFrameRoundTripsWithStringReferences() throws IOException {
+        byte[] payload = new PluginServerFrame(snapshot(20)).getBinary();
+        ScratchomisedRequest decoded = PluginServerFrame.decode(payload, 0, payload.length);
+
+        assertEquals("update_objects", decoded.action);
+        List<Map<String, Object>> objects = (List<Map<String, Object>>) decoded.args.get("objects");
+        assertEquals(20, objects.size());
+        assertEquals("light-7", objects.get(7).get("id"));
+        assertEquals("Ceiling light", objects.get(19).get("name"));
+        assertEquals("eTeks#ceilingLight", objects.get(0).get("catalogId"));
+        assertEquals(0.5, objects.get(3).get("power"));
+        assertEquals(Boolean.TRUE, objects.get(3).get("visible"));
+    }
+
+    @Test
+    void stringReferencesMakeRepeatedStringsSmaller() throws IOException {
+        ScratchomisedRequest request = snapshot(20);
+        byte[] withReferences = new PluginServerFrame(request).getBinary();
+        byte[] withoutReferences = new ObjectMapper(new CBORFactory()).writeValueAsBytes(request);
+
+        assertTrue(withReferences.length < withoutReferences.length);
+    }
+
+    @Test
+    void decodeReadsOnlyTheGivenRange() throws IOException {
+        byte[] payload = new PluginServerFrame(new ScratchomisedRequest("client_ready")).getBinary();
+        byte[] padded = new byte[payload.length + 4];
+        System.arraycopy(payload, 0, padded, 2, payload.length);
+
+        assertEquals("client_ready", PluginServerFrame.decode(padded, 2, payload.length).action);
+    }
+
+    @Test
+    void encodingIsDoneOncePerFormat() throws IOException {
+        PluginServerFrame frame = new PluginServerFrame(new ScratchomisedRequest("client_ready"));
+        assertSame(frame.getText(), frame.getText());
+        assertSame(frame.getBinary(), frame.getBinary());
+    }
+}
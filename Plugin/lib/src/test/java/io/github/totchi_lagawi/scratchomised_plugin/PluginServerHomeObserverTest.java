@@ -0,0 +1,68 @@
+package io.github.totchi_lagawi.scratchomised_plugin;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class PluginServerHomeObserverTest {
+    private PluginServerUpdateScheduler _updateScheduler;
+    private PluginServerHomeObserver _observer;
+
+    @BeforeEach
+    void createObserver() {
+        this._updateScheduler = new PluginServerUpdateScheduler(0, null);
+        // Sans plan, l'observateur ne garde que les lots qu'on lui donne ; deux au plus
+        PluginServerSettings settings = new PluginServerSettings();
+        settings.change_log_size = 2;
+        this._observer = new PluginServerHomeObserver(null, this._updateScheduler, null, settings);
+    }
+
+    @AfterEach
+    void dispose() {
+        this._observer.dispose();
+        this._updateScheduler.shutdown();
+    }
+
+    private void addChangeSets(int count) {
+        for (int i = 0; i < count; i++) {
+            this._observer.addChangeSet(new ArrayList<PluginServerHomeObserver.ChangedObject>(),
+                    new ArrayList<PluginServerObjectState>(),
+                    new ArrayList<String>(Collections.singletonList("piece" + i)));
+        }
+    }
+
+    @Test
+    void resumeReplaysOnlyMissedChangeSets() {
+        this.addChangeSets(3);
+
+        ArrayList<PluginServerHomeObserver.ChangeSet> changes = this._observer
+                .getChangesSince(this._observer.getEpoch(), 1);
+        assertEquals(2, changes.size());
+        assertEquals(2, changes.get(0).sequence);
+        assertEquals(3, changes.get(1).sequence);
+        assertEquals(0, this._observer.getChangesSince(this._observer.getEpoch(), 3).size());
+    }
+
+    @Test
+    void resumeFallsBackToSnapshotWhenChangeSetsAreNoLongerKept() {
+        this.addChangeSets(3);
+
+        // Le lot 1 est sorti du tampon
+        assertNull(this._observer.getChangesSince(this._observer.getEpoch(), 0));
+    }
+
+    @Test
+    void resumeFallsBackToSnapshotForAnotherServer() {
+        this.addChangeSets(1);
+
+        assertNull(this._observer.getChangesSince("another-epoch", 0));
+        // Un numéro que ce serveur n'a jamais envoyé
+        assertNull(this._observer.getChangesSince(this._observer.getEpoch(), 5));
+    }
+}
@@ -0,0 +1,73 @@
+package io.github.totchi_lagawi.scratchomised_plugin;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class PluginServerLogBufferTest {
+    @Test
+    void keepsElementsInOrderUntilFull() {
+        PluginServerLogBuffer<Integer> buffer = new PluginServerLogBuffer<Integer>(3);
+        assertFalse(buffer.add(1));
+        assertFalse(buffer.add(2));
+        assertFalse(buffer.add(3));
+
+        assertEquals(3, buffer.size());
+        assertEquals(1, buffer.get(0));
+        assertEquals(3, buffer.get(2));
+    }
+
+    @Test
+    void replacesOldestElementOnceFull() {
+        PluginServerLogBuffer<Integer> buffer = new PluginServerLogBuffer<Integer>(3);
+        for (int i = 1; i <= 3; i++) {
+            buffer.add(i);
+        }
+        assertTrue(buffer.add(4));
+        assertTrue(buffer.add(5));
+
+        assertEquals(3, buffer.size());
+        assertEquals(3, buffer.get(0));
+        assertEquals(4, buffer.get(1));
+        assertEquals(5, buffer.get(2));
+    }
+
+    @Test
+    void wrapsAroundManyTimes() {
+        PluginServerLogBuffer<Integer> buffer = new PluginServerLogBuffer<Integer>(4);
+        for (int i = 0; i < 1003; i++) {
+            buffer.add(i);
+        }
+
+        assertEquals(4, buffer.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(999 + i, buffer.get(i));
+        }
+    }
+
+    @Test
+    void clearEmptiesTheBuffer() {
+        PluginServerLogBuffer<Integer> buffer = new PluginServerLogBuffer<Integer>(2);
+        buffer.add(1);
+        buffer.add(2);
+        buffer.add(3);
+        buffer.clear();
+
+        assertEquals(0, buffer.size());
+        assertFalse(buffer.add(4));
+        assertEquals(4, buffer.get(0));
+    }
+
+    @Test
+    void rejectsIndexesOutsideTheElements() {
+        PluginServerLogBuffer<Integer> buffer = new PluginServerLogBuffer<Integer>(2);
+        buffer.add(1);
+
+        assertThrows(IndexOutOfBoundsException.class, () -> buffer.get(1));
+        assertThrows(IndexOutOfBoundsException.class, () -> buffer.get(-1));
+        assertThrows(IllegalArgumentException.class, () -> new PluginServerLogBuffer<Integer>(0));
+    }
+}
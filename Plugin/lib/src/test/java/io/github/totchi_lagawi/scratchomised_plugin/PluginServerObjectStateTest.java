@@ -0,0 +1,90 @@
+package io.github.totchi_lagawi.scratchomised_plugin;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import org.junit.jupiter.api.Test;
+
+class PluginServerObjectStateTest {
+    private static int index(String property) {
+        return Arrays.asList(PluginServerObjectState.PROPERTIES).indexOf(property);
+    }
+
+    /**
+     * Crée l'état d'une lumière, avec ces propriétés (nom, valeur) en plus de son
+     * identifiant
+     */
+    private static PluginServerObjectState state(Object... properties) {
+        Object[] values = new Object[PluginServerObjectState.PROPERTIES.length];
+        values[index("id")] = "lamp";
+        for (int i = 0; i < properties.length; i += 2) {
+            values[index((String) properties[i])] = properties[i + 1];
+        }
+        return new PluginServerObjectState(values, Collections.singletonList("com.eteks.sweethome3d.model.HomeLight"));
+    }
+
+    private static String writeChanges(PluginServerObjectState state, int changedProperties,
+            PluginServerSubscription subscription) throws IOException {
+        StringWriter writer = new StringWriter();
+        try (JsonGenerator generator = new JsonFactory().createGenerator(writer)) {
+            generator.writeStartArray();
+            state.writeChanges(generator, changedProperties, subscription);
+            generator.writeEndArray();
+        }
+        return writer.toString();
+    }
+
+    @Test
+    void changedPropertiesOnlyHasModifiedProperties() {
+        PluginServerObjectState previous = state("x", 10.0f, "power", 0.5f);
+        PluginServerObjectState state = state("x", 20.0f, "power", 0.5f);
+
+        assertEquals(1 << index("x"), state.getChangedProperties(previous));
+        assertEquals(0, state.getChangedProperties(state("x", 20.0f, "power", 0.5f)));
+    }
+
+    @Test
+    void writeChangesWritesOneEntryPerChangedProperty() throws IOException {
+        PluginServerObjectState previous = state("x", 10.0f, "name", "Lamp");
+        PluginServerObjectState state = state("x", 20.0f, "name", null);
+
+        assertEquals("[{\"id\":\"lamp\",\"property\":\"x\",\"value\":20.0},"
+                + "{\"id\":\"lamp\",\"property\":\"name\",\"value\":null}]",
+                writeChanges(state, state.getChangedProperties(previous), PluginServerSubscription.ALL));
+    }
+
+    @Test
+    void writeChangesMarksPropertiesNoLongerSentAsRemoved() throws IOException {
+        // La propriété power est sortie de la projection de l'objet
+        PluginServerObjectState previous = state("power", 0.5f);
+        PluginServerObjectState state = state("power", PluginServerObjectState.NOT_SENT);
+        int changedProperties = state.getChangedProperties(previous);
+
+        assertEquals("[{\"id\":\"lamp\",\"property\":\"power\",\"removed\":true}]",
+                writeChanges(state, changedProperties, PluginServerSubscription.ALL));
+        assertTrue(state.hasChanges(changedProperties, PluginServerSubscription.ALL));
+    }
+
+    @Test
+    void writeChangesSkipsPropertiesOutsideSubscription() throws IOException {
+        PluginServerObjectState previous = state("x", 10.0f, "power", 0.5f);
+        PluginServerObjectState state = state("x", 20.0f, "power", 1.0f);
+        PluginServerSubscription subscription = PluginServerSubscription.ALL.with(null, null,
+                Collections.singletonList("power"));
+        int changedProperties = state.getChangedProperties(previous);
+
+        assertEquals("[{\"id\":\"lamp\",\"property\":\"power\",\"value\":1.0}]",
+                writeChanges(state, changedProperties, subscription));
+        assertTrue(state.hasChanges(changedProperties, subscription));
+        assertFalse(state.hasChanges(1 << index("x"), subscription));
+    }
+}
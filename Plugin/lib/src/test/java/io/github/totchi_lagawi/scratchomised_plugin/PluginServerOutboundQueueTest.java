@@ -0,0 +1,180 @@
+package io.github.totchi_lagawi.scratchomised_plugin;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.fasterxml.jackson.jr.ob.JSON;
+
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.junit.jupiter.api.Test;
+
+class PluginServerOutboundQueueTest {
+    /**
+     * Session factice : les messages envoyés sont gardés, et leur callback n'est
+     * appelé que par complete(), ou immédiatement si inline est vrai
+     */
+    private static class FakeSession {
+        List<String> sent = new ArrayList<String>();
+        List<WriteCallback> pending = new ArrayList<WriteCallback>();
+        boolean open = true;
+        boolean inline = false;
+        int snapshotRequests = 0;
+        Session session;
+
+        FakeSession() {
+            RemoteEndpoint remote = (RemoteEndpoint) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] { RemoteEndpoint.class }, (proxy, method, args) -> {
+                        if (method.getName().equals("sendString") && args.length == 2) {
+                            this.sent.add(String.valueOf(JSON.std.mapFrom(args[0]).get("action")));
+                            if (this.inline) {
+                                ((WriteCallback) args[1]).writeSuccess();
+                            } else {
+                                this.pending.add((WriteCallback) args[1]);
+                            }
+                        }
+                        return null;
+                    });
+            this.session = (Session) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] { Session.class }, (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "isOpen":
+                                return this.open;
+                            case "getRemote":
+                                return remote;
+                            case "close":
+                                this.open = false;
+                                return null;
+                            default:
+                                return null;
+                        }
+                    });
+        }
+
+        PluginServerOutboundQueue queue(int capacity, PluginServerOverflowPolicy policy) {
+            return new PluginServerOutboundQueue(this.session, PluginServerWireFormat.JSON, capacity, policy, () -> this.snapshotRequests++, null);
+        }
+
+        void complete() {
+            while (!this.pending.isEmpty()) {
+                this.pending.remove(0).writeSuccess();
+            }
+        }
+    }
+
+    private static PluginServerFrame frame(String action) {
+        return new PluginServerFrame(new ScratchomisedRequest(action));
+    }
+
+    @Test
+    void framesAreSentOneAtATimeInOrder() {
+        FakeSession session = new FakeSession();
+        PluginServerOutboundQueue queue = session.queue(10, PluginServerOverflowPolicy.DROP_SUPERSEDED);
+        queue.offer(frame("a"), PluginServerOutboundQueue.Kind.UPDATE);
+        queue.offer(frame("b"), PluginServerOutboundQueue.Kind.UPDATE);
+        queue.offer(frame("click"), PluginServerOutboundQueue.Kind.PRIORITY);
+
+        assertEquals(1, session.sent.size());
+        session.complete();
+        assertEquals(Arrays.asList("a", "click", "b"), session.sent);
+        assertEquals(3, queue.getSentFrames());
+    }
+
+    @Test
+    void dropSupersededReplacesUpdatesBySnapshotButKeepsReplies() {
+        FakeSession session = new FakeSession();
+        PluginServerOutboundQueue queue = session.queue(2, PluginServerOverflowPolicy.DROP_SUPERSEDED);
+        queue.offer(frame("sending"), PluginServerOutboundQueue.Kind.UPDATE);
+        queue.offer(frame("update"), PluginServerOutboundQueue.Kind.UPDATE);
+        queue.offer(frame("reply"), PluginServerOutboundQueue.Kind.REPLY);
+
+        assertFalse(queue.offer(frame("overflow"), PluginServerOutboundQueue.Kind.UPDATE));
+        assertEquals(1, session.snapshotRequests);
+        assertEquals(2, queue.getDroppedFrames());
+        // En attendant l'instantané, les modifications sont abandonnées
+        assertFalse(queue.offer(frame("later"), PluginServerOutboundQueue.Kind.UPDATE));
+
+        assertTrue(queue.offer(frame("snapshot"), PluginServerOutboundQueue.Kind.SNAPSHOT));
+        session.complete();
+        assertTrue(queue.offer(frame("after"), PluginServerOutboundQueue.Kind.UPDATE));
+        session.complete();
+        assertEquals(Arrays.asList("sending", "reply", "snapshot", "after"), session.sent);
+    }
+
+    @Test
+    void snapshotChunksDoNotCountInCapacity() {
+        FakeSession session = new FakeSession();
+        PluginServerOutboundQueue queue = session.queue(1, PluginServerOverflowPolicy.DROP_SUPERSEDED);
+        queue.offer(frame("sending"), PluginServerOutboundQueue.Kind.UPDATE);
+        queue.offer(frame("chunk 0"), PluginServerOutboundQueue.Kind.SNAPSHOT);
+        queue.offer(frame("chunk 1"), PluginServerOutboundQueue.Kind.SNAPSHOT_CHUNK);
+        queue.offer(frame("chunk 2"), PluginServerOutboundQueue.Kind.SNAPSHOT_CHUNK);
+
+        assertTrue(queue.offer(frame("after"), PluginServerOutboundQueue.Kind.UPDATE));
+        assertEquals(0, session.snapshotRequests);
+        session.complete();
+        assertEquals(Arrays.asList("sending", "chunk 0", "chunk 1", "chunk 2", "after"), session.sent);
+    }
+
+    @Test
+    void replyIsQueuedWhenOnlyRepliesAreWaiting() {
+        FakeSession session = new FakeSession();
+        PluginServerOutboundQueue queue = session.queue(1, PluginServerOverflowPolicy.DROP_SUPERSEDED);
+        queue.offer(frame("sending"), PluginServerOutboundQueue.Kind.UPDATE);
+        queue.offer(frame("reply 1"), PluginServerOutboundQueue.Kind.REPLY);
+
+        assertTrue(queue.offer(frame("reply 2"), PluginServerOutboundQueue.Kind.REPLY));
+        assertEquals(0, session.snapshotRequests);
+        session.complete();
+        assertEquals(Arrays.asList("sending", "reply 1", "reply 2"), session.sent);
+    }
+
+    @Test
+    void disconnectPolicyClosesSlowSession() {
+        FakeSession session = new FakeSession();
+        PluginServerOutboundQueue queue = session.queue(1, PluginServerOverflowPolicy.DISCONNECT);
+        queue.offer(frame("sending"), PluginServerOutboundQueue.Kind.UPDATE);
+        queue.offer(frame("waiting"), PluginServerOutboundQueue.Kind.UPDATE);
+
+        assertFalse(queue.offer(frame("overflow"), PluginServerOutboundQueue.Kind.UPDATE));
+        assertFalse(session.open);
+        assertEquals(0, session.snapshotRequests);
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    void cancelledSnapshotRequestStopsDroppingUpdates() {
+        FakeSession session = new FakeSession();
+        PluginServerOutboundQueue queue = session.queue(1, PluginServerOverflowPolicy.DROP_SUPERSEDED);
+        queue.offer(frame("sending"), PluginServerOutboundQueue.Kind.UPDATE);
+        queue.offer(frame("waiting"), PluginServerOutboundQueue.Kind.UPDATE);
+        queue.offer(frame("overflow"), PluginServerOutboundQueue.Kind.UPDATE);
+
+        queue.cancelSnapshotRequest();
+        assertTrue(queue.offer(frame("update"), PluginServerOutboundQueue.Kind.UPDATE));
+    }
+
+    @Test
+    void inlineCallbacksDrainWithoutRecursion() {
+        FakeSession session = new FakeSession();
+        int frames = 100000;
+        PluginServerOutboundQueue queue = session.queue(frames, PluginServerOverflowPolicy.DROP_SUPERSEDED);
+        queue.offer(frame("first"), PluginServerOutboundQueue.Kind.UPDATE);
+        for (int i = 0; i < frames - 1; i++) {
+            queue.offer(frame("update " + i), PluginServerOutboundQueue.Kind.UPDATE);
+        }
+
+        // Chaque envoi suivant termine immédiatement, dans le thread qui envoie
+        session.inline = true;
+        session.complete();
+        assertEquals(frames, session.sent.size());
+        assertEquals(0, queue.size());
+    }
+}
@@ -0,0 +1,115 @@
+package io.github.totchi_lagawi.scratchomised_plugin;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class PropertyAccessorRegistryTest {
+    public static class Piece {
+        private Integer _color;
+        private float _power;
+        private boolean _visible;
+        private String _name;
+
+        public Integer getColor() {
+            return this._color;
+        }
+
+        public void setColor(Integer color) {
+            this._color = color;
+        }
+
+        public float getPower() {
+            return this._power;
+        }
+
+        public void setPower(float power) {
+            this._power = power;
+        }
+
+        public boolean isVisible() {
+            return this._visible;
+        }
+
+        public void setVisible(boolean visible) {
+            this._visible = visible;
+        }
+
+        public String getName() {
+            return this._name;
+        }
+
+        public void setName(String name) {
+            this._name = name;
+        }
+
+        public int getLevel() {
+            return 3;
+        }
+    }
+
+    private static PropertyAccessor accessor(String property) {
+        return PropertyAccessorRegistry.getInstance().getAccessor(Piece.class, property);
+    }
+
+    @Test
+    void colorAcceptsHexadecimalAndDecimalValues() {
+        assertEquals(0xFF8000, accessor("color").parse("0xFF8000"));
+        assertEquals(0xFF8000, accessor("color").parse("#FF8000"));
+        assertEquals(255, accessor("color").parse("255"));
+    }
+
+    @Test
+    void nullableColorAcceptsNull() {
+        assertNull(accessor("color").parse("null"));
+        assertNull(accessor("color").parse(""));
+    }
+
+    @Test
+    void primitivePropertiesRejectNull() {
+        assertThrows(IllegalArgumentException.class, () -> accessor("power").parse("null"));
+        assertThrows(IllegalArgumentException.class, () -> accessor("visible").parse(""));
+        assertThrows(IllegalArgumentException.class, () -> accessor("name").parse(null));
+    }
+
+    @Test
+    void invalidNumbersAreRejected() {
+        assertThrows(NumberFormatException.class, () -> accessor("power").parse("bright"));
+        assertThrows(NumberFormatException.class, () -> accessor("color").parse("#GG0000"));
+    }
+
+    @Test
+    void accessorSetsAndGetsValues() throws Throwable {
+        Piece piece = new Piece();
+        PropertyAccessor power = accessor("power");
+        power.set(piece, power.parse("0.5"));
+        assertEquals(0.5f, power.get(piece));
+        PropertyAccessor visible = accessor("visible");
+        visible.set(piece, visible.parse("true"));
+        assertEquals(Boolean.TRUE, visible.get(piece));
+    }
+
+    @Test
+    void getterOnlyPropertyIsReadOnly() {
+        PropertyAccessor level = accessor("level");
+        assertTrue(level.isReadable());
+        assertFalse(level.isWritable());
+    }
+
+    @Test
+    void unknownPropertyHasNoAccessor() {
+        assertNull(accessor("doesNotExist"));
+        assertNull(accessor(""));
+        assertNull(accessor(null));
+    }
+
+    @Test
+    void accessorIsResolvedOnce() {
+        assertSame(accessor("name"), accessor("name"));
+    }
+}